@@ -1,6 +1,22 @@
 package persistence.base;
 
+import persistence.base.aggregate.AggregateIndex;
+import persistence.base.change.Change;
+import persistence.base.change.Revision;
+import persistence.base.change.VersionPublisher;
+import persistence.metrics.Metrics;
+
+import java.time.Clock;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 public abstract class BasePersistentCollection<K, OT, BT> {
     protected final int modificationCount, startModificationCount;
@@ -31,13 +47,168 @@ public abstract class BasePersistentCollection<K, OT, BT> {
 
     protected abstract PersistentContent<BT> reassembleNodes();
 
+    protected abstract BasePersistentCollection<K, OT, BT> forked(PersistentContent<BT> nodes);
+
+    public abstract HistoryStats historyStats();
+
+    public long footprint() {
+        return historyStats().retainedBytes();
+    }
+
+    protected PersistentContent<BT> branch() {
+        if (!Metrics.enabled()) {
+            return reassembleNodes();
+        }
+
+        var discarded = nodes.maxModification.value - modificationCount;
+        var start = System.nanoTime();
+        var content = reassembleNodes();
+        Metrics.sink().reassembled(getClass(), discarded, System.nanoTime() - start);
+        return content;
+    }
+
+    public BasePersistentCollection<K, OT, BT> fork() {
+        materialize();
+        return forked(branch());
+    }
+
+    protected int countAt(int modificationStep) {
+        if (!Metrics.enabled()) {
+            return recalculateCount(modificationStep);
+        }
+
+        var start = System.nanoTime();
+        var result = recalculateCount(modificationStep);
+        Metrics.sink().recounted(getClass(), System.nanoTime() - start);
+        return result;
+    }
+
+    protected void checkVersion(int version) {
+        if (version < 0 || version > nodes.maxModification.value) {
+            throw new IllegalArgumentException("Such a version does not exist!");
+        }
+    }
+
+    protected void materialize() {
+    }
+
+    public void recordTimestamps() {
+        recordTimestamps(Clock.systemUTC());
+    }
+
+    public void recordTimestamps(Clock clock) {
+        materialize();
+        if (nodes.timeline == null) {
+            nodes.timeline = new Timeline(clock, nodes.maxModification.value);
+        }
+    }
+
+    public Instant timestamp() {
+        materialize();
+        return nodes.timeline == null ? null : nodes.timeline.timeOf(modificationCount);
+    }
+
+    public void cacheSnapshots(SnapshotCache cache) {
+        materialize();
+        nodes.snapshots = cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <S> S snapshot(boolean eager, Supplier<S> builder, ToIntFunction<S> weigher) {
+        var cache = nodes == null ? null : nodes.snapshots;
+        if (cache == null) {
+            return null;
+        }
+
+        var snapshot = (S) cache.get(nodes, modificationCount);
+        if (snapshot == null && (eager || cache.admit(nodes, modificationCount))) {
+            snapshot = builder.get();
+            cache.put(nodes, modificationCount, snapshot, weigher.applyAsInt(snapshot));
+        }
+
+        return snapshot;
+    }
+
+    protected AggregateIndex<?> attachedAggregate(String name) {
+        var aggregate = nodes.aggregates == null ? null : nodes.aggregates.get(name);
+        if (aggregate == null) {
+            throw new IllegalStateException("Such an aggregate does not exist!");
+        }
+
+        return aggregate;
+    }
+
+    protected void attachAggregate(String name, AggregateIndex<?> aggregate) {
+        if (nodes.aggregates == null) {
+            nodes.aggregates = new LinkedHashMap<>();
+        }
+        nodes.aggregates.put(name, aggregate);
+    }
+
+    protected VersionPublisher<K, OT> publisher(Executor executor, int maxBatch,
+                                                BiFunction<Integer, Integer, Stream<Change<K, OT>>> diff) {
+        materialize();
+        return new VersionPublisher<>(nodes, diff, executor, maxBatch);
+    }
+
+    protected int versionAt(Instant instant) {
+        materialize();
+        if (nodes.timeline == null) {
+            throw new IllegalStateException("Timestamps are not recorded!");
+        }
+
+        var version = nodes.timeline.versionAt(instant, modificationCount);
+        if (version < startModificationCount) {
+            throw new IllegalArgumentException("No version exists at such a time!");
+        }
+
+        return version;
+    }
+
+    protected Stream<Revision<OT>> history(PersistentNode<OT> node, int fromVersion, int toVersion) {
+        checkVersion(fromVersion);
+        checkVersion(toVersion);
+        if (fromVersion > toVersion) {
+            throw new IllegalArgumentException("fromVersion > toVersion");
+        }
+
+        if (node == null) {
+            return Stream.empty();
+        }
+
+        var lastVersion = Math.min(toVersion, modificationCount);
+        var revisions = node.history(fromVersion, lastVersion);
+        var clears = nodes.clearsBetween(fromVersion, lastVersion);
+        if (clears.length == 0) {
+            return revisions;
+        }
+
+        var removals = Arrays.stream(clears)
+                .filter(c -> node.value(c - 1, nodes.lastClear(c - 1)) != null)
+                .mapToObj(c -> new Revision<OT>(c, null));
+        return Stream.concat(revisions, removals).sorted(Comparator.comparingInt(Revision::version));
+    }
+
+    protected boolean sameVersion(BasePersistentCollection<?, ?, ?> other) {
+        return nodes != null && nodes == other.nodes && modificationCount == other.modificationCount;
+    }
+
+    public boolean sharesHistory(BasePersistentCollection<?, ?, ?> other) {
+        return nodes != null && nodes == other.nodes;
+    }
+
     public Object getIn(Object... keys) {
-        Object item = get((K) keys[0]);
-        var keysLength = keys.length;
+        return getIn(new Path(keys));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Object getIn(Path path) {
+        Object item = get((K) path.key(0));
+        var keysLength = path.length();
 
         for (int i = 1; i < keysLength; i++) {
             if (item instanceof BasePersistentCollection bpc) {
-                item = bpc.get(keys[i]);
+                item = bpc.get(path.key(i));
             } else {
                 throw new IndexOutOfBoundsException(String.format(
                         "out of nested bounds - real nest:%d, got keys: %d",
@@ -51,22 +222,35 @@ public abstract class BasePersistentCollection<K, OT, BT> {
     }
 
     public BasePersistentCollection<K, OT, BT> setIn(Object value, Object... keys) {
-        if (keys.length == 1) {
-            return replace((K) keys[0], (OT) value);
-        }
+        return setIn(new Path(keys), value);
+    }
+
+    public BasePersistentCollection<K, OT, BT> setIn(Path path, Object value) {
+        return updateIn(path, old -> value);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BasePersistentCollection<K, OT, BT> updateIn(Path path, UnaryOperator<Object> updater) {
+        var keysLength = path.length();
+        var levels = new BasePersistentCollection[keysLength];
+        levels[0] = this;
 
-        if (!(get((K) keys[0]) instanceof BasePersistentCollection bpc)) {
-            throw new IndexOutOfBoundsException(String.format(
-                    "out of nested bounds - real nest:%d from the keys end", keys.length
-            ));
+        for (int i = 1; i < keysLength; i++) {
+            if (!(levels[i - 1].get(path.key(i - 1)) instanceof BasePersistentCollection bpc)) {
+                throw new IndexOutOfBoundsException(String.format(
+                        "out of nested bounds - real nest:%d from the keys end", keysLength - i + 1
+                ));
+            }
+
+            levels[i] = bpc;
         }
 
-        return replace((K) keys[0], (OT) bpc.setIn(value, removeFirstKey(keys)));
-    }
+        var last = keysLength - 1;
+        Object value = levels[last].replace(path.key(last), updater.apply(levels[last].get(path.key(last))));
+        for (int i = last - 1; i >= 0; i--) {
+            value = levels[i].replace(path.key(i), value);
+        }
 
-    private Object[] removeFirstKey(Object... keys) {
-        return Arrays.copyOfRange(keys, 1, keys.length);
+        return (BasePersistentCollection<K, OT, BT>) value;
     }
 }
-
-
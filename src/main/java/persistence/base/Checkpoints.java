@@ -0,0 +1,127 @@
+package persistence.base;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+public class Checkpoints {
+    private final int interval;
+    private final int start;
+    private int[] versions = new int[4];
+    private Object[][] snapshots = new Object[4][];
+    private int size;
+    private byte[] operations = new byte[16];
+    private Object[] arguments = new Object[16];
+    private int journalSize;
+
+    public Checkpoints(int interval, int start) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive!");
+        }
+
+        this.interval = interval;
+        this.start = start;
+    }
+
+    public int interval() {
+        return interval;
+    }
+
+    public boolean due(int version) {
+        return version % interval == 0;
+    }
+
+    public void put(int version, Object[] snapshot) {
+        var index = Arrays.binarySearch(versions, 0, size, version);
+        if (index >= 0) {
+            snapshots[index] = snapshot;
+            return;
+        }
+
+        index = -index - 1;
+        if (size == versions.length) {
+            versions = Arrays.copyOf(versions, size * 2);
+            snapshots = Arrays.copyOf(snapshots, size * 2);
+        }
+        System.arraycopy(versions, index, versions, index + 1, size - index);
+        System.arraycopy(snapshots, index, snapshots, index + 1, size - index);
+        versions[index] = version;
+        snapshots[index] = snapshot;
+        size++;
+    }
+
+    public int floor(int version) {
+        var index = Arrays.binarySearch(versions, 0, size, version);
+        if (index < 0) {
+            index = -index - 2;
+        }
+
+        return index < 0 ? -1 : versions[index];
+    }
+
+    public Object[] snapshot(int version) {
+        var index = Arrays.binarySearch(versions, 0, size, version);
+        return index < 0 ? null : snapshots[index];
+    }
+
+    public void record(int version, int operation, Object argument) {
+        var index = version - start - 1;
+        if (index < 0 || index > journalSize) {
+            return;
+        }
+
+        if (index == operations.length) {
+            operations = Arrays.copyOf(operations, index * 2);
+            arguments = Arrays.copyOf(arguments, index * 2);
+        }
+        operations[index] = (byte) operation;
+        arguments[index] = argument;
+        journalSize = index + 1;
+    }
+
+    public boolean journaled(int version) {
+        return version <= start + journalSize;
+    }
+
+    public int operation(int version) {
+        return operations[version - start - 1];
+    }
+
+    public Object argument(int version) {
+        return arguments[version - start - 1];
+    }
+
+    public long bytes() {
+        var result = HistoryStats.objectBytes(4, 16) + HistoryStats.objectBytes(0, 4 * versions.length)
+                + HistoryStats.objectBytes(snapshots.length, 0)
+                + HistoryStats.objectBytes(0, operations.length) + HistoryStats.objectBytes(arguments.length, 0);
+        for (var i = 0; i < size; i++) {
+            result += HistoryStats.objectBytes(snapshots[i].length, 0);
+        }
+
+        return result;
+    }
+
+    public Checkpoints truncated(int version) {
+        return remapped(version, UnaryOperator.identity());
+    }
+
+    public Checkpoints remapped(int version, UnaryOperator<Object> mapper) {
+        var result = new Checkpoints(interval, Math.min(start, version));
+        for (var i = 0; i < size && versions[i] <= version; i++) {
+            var snapshot = snapshots[i].clone();
+            for (var j = 0; j < snapshot.length; j++) {
+                snapshot[j] = mapper.apply(snapshot[j]);
+            }
+            result.put(versions[i], snapshot);
+        }
+
+        if (version >= start) {
+            for (var v = start + 1; v <= version && journaled(v); v++) {
+                var argument = argument(v);
+                result.record(v, operation(v), argument == null ? null : mapper.apply(argument));
+            }
+        }
+
+        return result;
+    }
+}
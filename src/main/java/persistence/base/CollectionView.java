@@ -0,0 +1,57 @@
+package persistence.base;
+
+import persistence.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.function.IntFunction;
+
+public class CollectionView<T> implements Iterable<T> {
+    private final Iterable<T> source;
+    private final IntFunction<T> getter;
+    private volatile Object[] items;
+
+    public CollectionView(Iterable<T> source) {
+        this(source, null);
+    }
+
+    public CollectionView(Iterable<T> source, IntFunction<T> getter) {
+        this.source = source;
+        this.getter = getter;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (getter != null) {
+            return getter.apply(index);
+        }
+
+        return (T) items()[index];
+    }
+
+    // sources without positional access are copied once, on the first positional read
+    private Object[] items() {
+        var items = this.items;
+        if (items == null) {
+            synchronized (this) {
+                items = this.items;
+                if (items == null) {
+                    var list = new ArrayList<T>();
+                    source.forEach(list::add);
+                    items = list.toArray();
+                    this.items = items;
+                    if (Metrics.enabled()) {
+                        Metrics.sink().materialized(CollectionView.class, items.length);
+                    }
+                }
+            }
+        }
+
+        return items;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return source.iterator();
+    }
+}
@@ -0,0 +1,63 @@
+package persistence.base;
+
+import persistence.base.tree.BinaryTree;
+
+import java.util.Arrays;
+
+public record HistoryStats(int liveElements, long historyEntries, long retainedBytes, long[] depthHistogram) {
+    public static long objectBytes(int references, int primitiveBytes) {
+        return (Collector.HEADER + references * Collector.REFERENCE + primitiveBytes + 7) & ~7L;
+    }
+
+    public int nodes() {
+        return (int) Arrays.stream(depthHistogram).sum();
+    }
+
+    public static class Collector {
+        private static final int HEADER = 12, REFERENCE = 4;
+        private static final long TREE_NODE = objectBytes(6, 4);
+        private static final long BOXED_STEP = objectBytes(0, 4);
+        private static final long NODE = objectBytes(1, 1) + objectBytes(3, 4);
+
+        private final long[] histogram = new long[32];
+        private long entries;
+        private long bytes;
+
+        public Collector node(PersistentNode<?> node) {
+            var depth = node.historyLength();
+            histogram[32 - Integer.numberOfLeadingZeros(Math.max(depth, 1) - 1)]++;
+            entries += depth;
+            bytes += NODE + node.modifications.size() * (TREE_NODE + BOXED_STEP) + node.archivedBytes();
+            return this;
+        }
+
+        public Collector tree(BinaryTree<?, ?> tree) {
+            bytes += objectBytes(3, 4) + tree.size() * TREE_NODE;
+            return this;
+        }
+
+        public Collector list(int size) {
+            bytes += objectBytes(1, 8) + objectBytes(0, 4) + (long) size * REFERENCE;
+            return this;
+        }
+
+        public Collector entries(long count) {
+            entries += count;
+            return this;
+        }
+
+        public Collector bytes(long count) {
+            bytes += count;
+            return this;
+        }
+
+        public HistoryStats build(int liveElements) {
+            var length = histogram.length;
+            while (length > 0 && histogram[length - 1] == 0) {
+                length--;
+            }
+
+            return new HistoryStats(liveElements, entries, bytes, Arrays.copyOf(histogram, length));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package persistence.base;
+
+import java.util.Arrays;
+
+public final class Path {
+    private final Object[] keys;
+
+    Path(Object[] keys) {
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("Path must not be empty!");
+        }
+
+        this.keys = keys;
+    }
+
+    public static Path of(Object... keys) {
+        return new Path(keys.clone());
+    }
+
+    public int length() {
+        return keys.length;
+    }
+
+    public Object key(int level) {
+        return keys[level];
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(keys);
+    }
+}
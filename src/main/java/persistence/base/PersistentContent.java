@@ -1,18 +1,160 @@
 package persistence.base;
 
+import persistence.base.aggregate.AggregateIndex;
+import persistence.base.change.ChangeIndex;
+import persistence.base.change.PresenceIndex;
+import persistence.base.change.VersionPublisher;
+import persistence.base.index.SecondaryIndex;
+import persistence.metrics.Metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class PersistentContent<T> {
     public T content;
     public ModificationCount maxModification;
+    public ChangeIndex changes;
+    public Map<String, AggregateIndex<?>> aggregates;
+    public PresenceIndex presence;
+    public Timeline timeline;
+    public Checkpoints checkpoints;
+    public SnapshotCache snapshots;
+    public Map<String, SecondaryIndex<?, ?, ?>> indexes;
+    private WeakReference<PersistentContent<?>> origin;
+    private int originVersion;
+    private int[] clears = new int[0];
+    private int clearCount;
+    private volatile int writeStamp;
+    private volatile List<VersionPublisher<?, ?>> publishers;
 
     public PersistentContent(T content, ModificationCount step) {
         this.content = content;
         maxModification = step;
+        changes = new ChangeIndex(step.value);
     }
 
     public void update(Consumer<T> contentUpdater) {
-        contentUpdater.accept(content);
-        maxModification.value++;
+        rewrite(c -> {
+            contentUpdater.accept(c);
+            return ++maxModification.value;
+        });
+
+        if (timeline != null) {
+            timeline.record(maxModification.value);
+        }
+        if (Metrics.enabled()) {
+            Metrics.sink().versionCreated(maxModification.value);
+        }
+        if (publishers != null) {
+            for (var publisher : publishers) {
+                publisher.committed(maxModification.value);
+            }
+        }
+    }
+
+    public <R> R rewrite(Function<T, R> contentUpdater) {
+        writeStamp++;
+        try {
+            return contentUpdater.apply(content);
+        } finally {
+            writeStamp++;
+        }
+    }
+
+    public int writeStamp() {
+        return writeStamp;
+    }
+
+    public synchronized void publish(VersionPublisher<?, ?> publisher) {
+        if (publishers == null) {
+            publishers = new CopyOnWriteArrayList<>();
+        }
+        publishers.add(publisher);
+    }
+
+    public synchronized void unpublish(VersionPublisher<?, ?> publisher) {
+        if (publishers != null) {
+            publishers.remove(publisher);
+        }
+    }
+
+    public void clearAt(int version) {
+        if (clearCount == clears.length) {
+            clears = Arrays.copyOf(clears, Math.max(4, clearCount * 2));
+        }
+        clears[clearCount++] = version;
+    }
+
+    public int lastClear(int version) {
+        var index = lastClearIndex(version);
+        return index < 0 ? -1 : clears[index];
+    }
+
+    private int lastClearIndex(int version) {
+        var index = Arrays.binarySearch(clears, 0, clearCount, version);
+        return index < 0 ? -index - 2 : index;
+    }
+
+    public boolean clearedBetween(int low, int high) {
+        return lastClear(high) > low;
+    }
+
+    public int[] clearsBetween(int low, int high) {
+        var from = Arrays.binarySearch(clears, 0, clearCount, low);
+        var to = Arrays.binarySearch(clears, 0, clearCount, high);
+        return Arrays.copyOfRange(clears, from < 0 ? -from - 1 : from, to < 0 ? -to - 1 : to + 1);
+    }
+
+    public PersistentContent<T> branchOf(PersistentContent<?> origin, int version) {
+        this.origin = new WeakReference<>(origin);
+        originVersion = version;
+        snapshots = origin.snapshots;
+        if (origin.aggregates != null) {
+            aggregates = new LinkedHashMap<>();
+            origin.aggregates.forEach((name, aggregate) -> aggregates.put(name, aggregate.truncated(version)));
+        }
+        if (origin.presence != null) {
+            presence = origin.presence.truncated(version);
+        }
+        if (origin.timeline != null) {
+            timeline = origin.timeline.truncated(version);
+        }
+        if (origin.checkpoints != null) {
+            checkpoints = origin.checkpoints.truncated(version);
+        }
+        if (origin.indexes != null) {
+            indexes = new LinkedHashMap<>();
+            origin.indexes.forEach((name, index) -> indexes.put(name, index.truncated(version)));
+        }
+        clearCount = Math.max(0, origin.lastClearIndex(version) + 1);
+        clears = Arrays.copyOf(origin.clears, clearCount);
+        return this;
+    }
+
+    public boolean sharesHistory(PersistentContent<?> other, int version) {
+        var ancestors = Collections.newSetFromMap(new IdentityHashMap<PersistentContent<?>, Boolean>());
+        for (PersistentContent<?> c = this; c != null; c = c.origin(version)) {
+            ancestors.add(c);
+        }
+
+        for (PersistentContent<?> c = other; c != null; c = c.origin(version)) {
+            if (ancestors.contains(c)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private PersistentContent<?> origin(int version) {
+        return origin == null || originVersion < version ? null : origin.get();
     }
 }
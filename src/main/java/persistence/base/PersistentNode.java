@@ -1,20 +1,199 @@
 package persistence.base;
 
+import persistence.base.change.Revision;
+import persistence.base.codec.HistoryArchive;
+import persistence.base.codec.HistoryBlock;
+import persistence.base.codec.HistoryCodec;
+import persistence.base.codec.HistorySegment;
 import persistence.base.tree.BinaryTree;
+import persistence.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.stream.Stream;
 
 public class PersistentNode<TV> {
+    public static final int BLOCK_SIZE = 128;
+
     public BinaryTree<Integer, TV> modifications = new BinaryTree<>();
+    public boolean shared;
+    private HistoryArchive<TV> archive;
+    private int creationStep = Integer.MAX_VALUE, lastStep = -1;
+    private boolean lastPresent;
 
     public PersistentNode(int creationStep, TV initialValue) {
         update(creationStep, initialValue);
     }
 
+    private PersistentNode(HistoryArchive<TV> archive) {
+        this.archive = archive;
+        creationStep = archive.firstVersion();
+        lastStep = archive.lastVersion();
+        lastPresent = archive.floor(lastStep).value() != null;
+    }
+
+    public int creationStep() {
+        return creationStep;
+    }
+
+    public int historyLength() {
+        return modifications.size() + (archive == null ? 0 : archive.size());
+    }
+
+    public long archivedBytes() {
+        return archive == null ? 0 : archive.bytes();
+    }
+
+    public long spilledBytes() {
+        return archive == null ? 0 : archive.spilledBytes();
+    }
+
+    private Revision<TV> floor(int accessStep) {
+        var modification = modifications.floorNode(accessStep);
+        if (modification != null) {
+            return new Revision<>(modification.key, modification.data);
+        }
+
+        return archive == null ? null : archive.floor(accessStep);
+    }
+
     public TV value(int accessStep) {
-        return modifications.findNearestLess(accessStep);
+        if (archive == null) {
+            return modifications.findNearestLess(accessStep);
+        }
+
+        var revision = floor(accessStep);
+        return revision == null ? null : revision.value();
+    }
+
+    public TV value(int accessStep, int clearStep) {
+        var revision = floor(accessStep);
+        return revision == null || revision.version() <= clearStep ? null : revision.value();
+    }
+
+    public boolean exists(int accessStep, int clearStep) {
+        if (accessStep < creationStep) {
+            return false;
+        }
+        if (accessStep >= lastStep) {
+            return lastStep > clearStep;
+        }
+
+        var revision = floor(accessStep);
+        return revision != null && revision.version() > clearStep;
+    }
+
+    public boolean present(int accessStep, int clearStep) {
+        if (accessStep < creationStep) {
+            return false;
+        }
+        if (accessStep >= lastStep) {
+            return lastPresent && lastStep > clearStep;
+        }
+
+        return value(accessStep, clearStep) != null;
     }
 
     public PersistentNode<TV> update(int accessStep, TV value) {
         modifications.insert(accessStep, value);
+        creationStep = Math.min(creationStep, accessStep);
+        if (accessStep >= lastStep) {
+            lastStep = accessStep;
+            lastPresent = value != null;
+        }
+        if (Metrics.enabled()) {
+            Metrics.sink().historyLength(historyLength());
+        }
         return this;
     }
+
+    public int compact(HistoryCodec<TV> codec) {
+        var sealed = 0;
+        while (modifications.size() > BLOCK_SIZE) {
+            seal(BLOCK_SIZE, codec);
+            sealed += BLOCK_SIZE;
+        }
+
+        return sealed;
+    }
+
+    public int spill(int beforeStep, HistoryCodec<TV> codec, HistorySegment segment) {
+        if (!codec.spillable()) {
+            throw new IllegalArgumentException("Such a codec cannot spill history!");
+        }
+
+        var sealable = 0;
+        for (var m = modifications.firstNode(); m != null && m.key < beforeStep && sealable < modifications.size() - 1;
+             m = BinaryTree.successor(m)) {
+            sealable++;
+        }
+        while (sealable > 0) {
+            var count = Math.min(sealable, BLOCK_SIZE);
+            seal(count, codec);
+            sealable -= count;
+        }
+
+        if (archive == null) {
+            return 0;
+        }
+
+        var spilled = archive.spilledSize();
+        archive = archive.spilled(beforeStep, segment, codec, modifications.size() == 0);
+        return archive.spilledSize() - spilled;
+    }
+
+    private void seal(int count, HistoryCodec<TV> codec) {
+        var versions = new int[count];
+        var values = new ArrayList<TV>(count);
+        var modification = modifications.firstNode();
+        for (var i = 0; i < count; i++, modification = BinaryTree.successor(modification)) {
+            versions[i] = modification.key;
+            values.add(modification.data);
+        }
+
+        var block = HistoryBlock.of(versions, values, codec);
+        archive = archive == null ? new HistoryArchive<>(block) : archive.appended(block);
+
+        var rest = new BinaryTree<Integer, TV>();
+        for (; modification != null; modification = BinaryTree.successor(modification)) {
+            rest.insert(modification.key, modification.data);
+        }
+        modifications = rest;
+    }
+
+    public Stream<Revision<TV>> history(int fromStep, int toStep) {
+        var recent = Stream.iterate(modifications.ceilingNode(fromStep), m -> m != null && m.key <= toStep, BinaryTree::successor)
+                .map(m -> new Revision<>(m.key, m.data));
+        return archive == null || archive.lastVersion() < fromStep
+                ? recent
+                : Stream.concat(archive.history(fromStep, toStep), recent);
+    }
+
+    public PersistentNode<TV> truncated(int lastStep) {
+        PersistentNode<TV> result = null;
+        var overflow = new ArrayList<Revision<TV>>();
+        if (archive != null) {
+            var kept = archive.truncated(lastStep, overflow);
+            if (kept != null) {
+                result = new PersistentNode<>(kept);
+            }
+        }
+
+        for (var revision : overflow) {
+            result = result == null
+                    ? new PersistentNode<>(revision.version(), revision.value())
+                    : result.update(revision.version(), revision.value());
+        }
+
+        for (var m = modifications.firstNode(); m != null && m.key <= lastStep; m = BinaryTree.successor(m)) {
+            result = result == null
+                    ? new PersistentNode<>(m.key, m.data)
+                    : result.update(m.key, m.data);
+        }
+
+        return result;
+    }
+
+    public PersistentNode<TV> copy() {
+        return truncated(Integer.MAX_VALUE);
+    }
 }
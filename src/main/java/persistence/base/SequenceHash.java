@@ -0,0 +1,44 @@
+package persistence.base;
+
+import java.util.Objects;
+
+public final class SequenceHash {
+    public static final int EMPTY = 1;
+    private static final int INVERSE_31 = -1108378657;
+
+    private SequenceHash() {
+    }
+
+    public static int append(int hash, Object item) {
+        return 31 * hash + Objects.hashCode(item);
+    }
+
+    public static int dropLast(int hash, Object item) {
+        return (hash - Objects.hashCode(item)) * INVERSE_31;
+    }
+
+    public static int prepend(int hash, int size, Object item) {
+        return hash + pow31(size) * (30 + Objects.hashCode(item));
+    }
+
+    public static int dropFirst(int hash, int size, Object item) {
+        return hash - pow31(size - 1) * (30 + Objects.hashCode(item));
+    }
+
+    public static int replace(int hash, int size, int index, Object oldItem, Object newItem) {
+        return hash + (Objects.hashCode(newItem) - Objects.hashCode(oldItem)) * pow31(size - 1 - index);
+    }
+
+    private static int pow31(int exponent) {
+        var result = 1;
+        var base = 31;
+        for (var e = exponent; e > 0; e >>= 1) {
+            if ((e & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package persistence.base;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SnapshotCache {
+    private record Key(PersistentContent<?> content, int version) {
+    }
+
+    private record Entry(Object snapshot, long weight) {
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Boolean> candidates = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight, hits, misses;
+
+    public SnapshotCache(int maxEntries, long maxWeight) {
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive!");
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    public synchronized Object get(PersistentContent<?> content, int version) {
+        var entry = entries.get(new Key(content, version));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.snapshot;
+    }
+
+    public synchronized boolean admit(PersistentContent<?> content, int version) {
+        var key = new Key(content, version);
+        if (candidates.remove(key) != null) {
+            return true;
+        }
+
+        candidates.put(key, true);
+        if (candidates.size() > maxEntries * 4) {
+            var eldest = candidates.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return false;
+    }
+
+    public synchronized void put(PersistentContent<?> content, int version, Object snapshot, long weight) {
+        if (weight > maxWeight) {
+            return;
+        }
+
+        var previous = entries.put(new Key(content, version), new Entry(snapshot, weight));
+        this.weight += weight - (previous == null ? 0 : previous.weight);
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || this.weight > maxWeight) {
+            this.weight -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        candidates.clear();
+        weight = 0;
+    }
+}
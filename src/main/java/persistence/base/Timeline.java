@@ -0,0 +1,72 @@
+package persistence.base;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+
+public class Timeline {
+    private final Clock clock;
+    private final int start;
+    private long[] times;
+    private int size;
+
+    public Timeline(Clock clock, int version) {
+        this(clock, version, new long[16], 0);
+        record(version);
+    }
+
+    private Timeline(Clock clock, int start, long[] times, int size) {
+        this.clock = clock;
+        this.start = start;
+        this.times = times;
+        this.size = size;
+    }
+
+    public void record(int version) {
+        var index = version - start;
+        if (index >= times.length) {
+            times = Arrays.copyOf(times, Math.max(index + 1, times.length * 2));
+        }
+
+        var now = clock.millis();
+        times[index] = index > 0 ? Math.max(now, times[index - 1]) : now;
+        size = index + 1;
+    }
+
+    public Instant timeOf(int version) {
+        var index = version - start;
+        return index < 0 || index >= size ? null : Instant.ofEpochMilli(times[index]);
+    }
+
+    public int versionAt(Instant instant, int lastVersion) {
+        var millis = instant.toEpochMilli();
+        if (millis < times[0]) {
+            return -1;
+        }
+
+        if (lastVersion < start) {
+            return lastVersion;
+        }
+
+        int low = 0, high = Math.min(lastVersion - start, size - 1);
+        while (low < high) {
+            var middle = (low + high + 1) >>> 1;
+            if (times[middle] <= millis) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return start + low;
+    }
+
+    public Timeline truncated(int version) {
+        if (version < start) {
+            return new Timeline(clock, version);
+        }
+
+        var newSize = Math.min(size, version - start + 1);
+        return new Timeline(clock, start, Arrays.copyOf(times, Math.max(newSize, 16)), newSize);
+    }
+}
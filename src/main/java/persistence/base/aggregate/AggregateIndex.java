@@ -0,0 +1,37 @@
+package persistence.base.aggregate;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public abstract class AggregateIndex<R> {
+    private Object[] roots = new Object[8];
+    private final BitSet known = new BitSet();
+
+    public synchronized boolean has(int version) {
+        return version >= 0 && known.get(version);
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized R root(int version) {
+        return (R) roots[version];
+    }
+
+    public synchronized void record(int version, R root) {
+        if (version >= roots.length) {
+            roots = Arrays.copyOf(roots, Math.max(version + 1, roots.length * 2));
+        }
+
+        roots[version] = root;
+        known.set(version);
+    }
+
+    public synchronized AggregateIndex<R> truncated(int version) {
+        var result = emptyCopy();
+        result.roots = Arrays.copyOf(roots, Math.max(roots.length, version + 1));
+        Arrays.fill(result.roots, Math.min(version + 1, result.roots.length), result.roots.length, null);
+        result.known.or(known.get(0, version + 1));
+        return result;
+    }
+
+    protected abstract AggregateIndex<R> emptyCopy();
+}
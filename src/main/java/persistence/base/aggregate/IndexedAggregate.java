@@ -0,0 +1,109 @@
+package persistence.base.aggregate;
+
+import java.util.ArrayList;
+
+public class IndexedAggregate<T, A> extends AggregateIndex<IndexedAggregate.Tree<A>> {
+    private final Monoid<? super T, A> monoid;
+
+    public IndexedAggregate(Monoid<? super T, A> monoid) {
+        this.monoid = monoid;
+    }
+
+    public record Tree<A>(Segment<A> root, int capacity) {
+    }
+
+    record Segment<A>(A value, Segment<A> left, Segment<A> right) {
+    }
+
+    public Monoid<? super T, A> monoid() {
+        return monoid;
+    }
+
+    @Override
+    protected IndexedAggregate<T, A> emptyCopy() {
+        return new IndexedAggregate<>(monoid);
+    }
+
+    public Tree<A> build(Iterable<? extends T> items) {
+        var level = new ArrayList<Segment<A>>();
+        for (var item : items) {
+            level.add(new Segment<>(monoid.lift(item), null, null));
+        }
+
+        var capacity = 1;
+        while (capacity < level.size()) {
+            capacity *= 2;
+        }
+
+        for (var width = 1; width < capacity; width *= 2) {
+            var next = new ArrayList<Segment<A>>((level.size() + 1) / 2);
+            for (var i = 0; i < level.size(); i += 2) {
+                next.add(join(level.get(i), i + 1 < level.size() ? level.get(i + 1) : null));
+            }
+            level = next;
+        }
+
+        return new Tree<>(level.isEmpty() ? null : level.get(0), capacity);
+    }
+
+    public Tree<A> set(Tree<A> tree, int index, T item) {
+        return update(tree, index, monoid.lift(item), true);
+    }
+
+    public Tree<A> clear(Tree<A> tree, int index) {
+        return index >= tree.capacity ? tree : update(tree, index, null, false);
+    }
+
+    private Tree<A> update(Tree<A> tree, int index, A value, boolean present) {
+        var root = tree.root;
+        var capacity = tree.capacity;
+        while (index >= capacity) {
+            root = root == null ? null : join(root, null);
+            capacity *= 2;
+        }
+
+        return new Tree<>(update(root, 0, capacity, index, value, present), capacity);
+    }
+
+    private Segment<A> update(Segment<A> node, int low, int high, int index, A value, boolean present) {
+        if (high - low == 1) {
+            return present ? new Segment<>(value, null, null) : null;
+        }
+
+        var middle = (low + high) >>> 1;
+        var left = node == null ? null : node.left;
+        var right = node == null ? null : node.right;
+        if (index < middle) {
+            left = update(left, low, middle, index, value, present);
+        } else {
+            right = update(right, middle, high, index, value, present);
+        }
+
+        return left == null && right == null ? null : join(left, right);
+    }
+
+    public A query(Tree<A> tree, int from, int to) {
+        return query(tree.root, 0, tree.capacity, from, Math.min(to, tree.capacity));
+    }
+
+    private A query(Segment<A> node, int low, int high, int from, int to) {
+        if (node == null || to <= low || high <= from) {
+            return monoid.identity();
+        }
+
+        if (from <= low && high <= to) {
+            return node.value;
+        }
+
+        var middle = (low + high) >>> 1;
+        return monoid.combine(query(node.left, low, middle, from, to), query(node.right, middle, high, from, to));
+    }
+
+    private Segment<A> join(Segment<A> left, Segment<A> right) {
+        return new Segment<>(monoid.combine(value(left), value(right)), left, right);
+    }
+
+    private A value(Segment<A> node) {
+        return node == null ? monoid.identity() : node.value;
+    }
+}
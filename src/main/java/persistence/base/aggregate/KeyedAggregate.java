@@ -0,0 +1,163 @@
+package persistence.base.aggregate;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class KeyedAggregate<K, T, A> extends AggregateIndex<KeyedAggregate.Node<K, A>> {
+    private final Comparator<? super K> comparator;
+    private final Monoid<? super T, A> monoid;
+
+    public KeyedAggregate(Comparator<? super K> comparator, Monoid<? super T, A> monoid) {
+        this.comparator = comparator;
+        this.monoid = monoid;
+    }
+
+    public record Node<K, A>(K key, A value, A aggregate, int priority, Node<K, A> left, Node<K, A> right) {
+    }
+
+    public Monoid<? super T, A> monoid() {
+        return monoid;
+    }
+
+    @Override
+    protected KeyedAggregate<K, T, A> emptyCopy() {
+        return new KeyedAggregate<>(comparator, monoid);
+    }
+
+    public Node<K, A> build(Iterable<? extends Map.Entry<? extends K, ? extends T>> entries) {
+        Node<K, A> root = null;
+        for (var entry : entries) {
+            root = put(root, entry.getKey(), entry.getValue());
+        }
+
+        return root;
+    }
+
+    public Node<K, A> put(Node<K, A> root, K key, T item) {
+        return put(root, key, monoid.lift(item), ThreadLocalRandom.current().nextInt());
+    }
+
+    private Node<K, A> put(Node<K, A> node, K key, A value, int priority) {
+        if (node == null) {
+            return node(key, value, priority, null, null);
+        }
+
+        var cmp = comparator.compare(key, node.key);
+        if (cmp == 0) {
+            return node(node.key, value, node.priority, node.left, node.right);
+        }
+
+        if (cmp < 0) {
+            var left = put(node.left, key, value, priority);
+            return left.priority > node.priority
+                    ? node(left.key, left.value, left.priority, left.left, node(node.key, node.value, node.priority, left.right, node.right))
+                    : node(node.key, node.value, node.priority, left, node.right);
+        }
+
+        var right = put(node.right, key, value, priority);
+        return right.priority > node.priority
+                ? node(right.key, right.value, right.priority, node(node.key, node.value, node.priority, node.left, right.left), right.right)
+                : node(node.key, node.value, node.priority, node.left, right);
+    }
+
+    public Node<K, A> remove(Node<K, A> node, K key) {
+        if (node == null) {
+            return null;
+        }
+
+        var cmp = comparator.compare(key, node.key);
+        if (cmp < 0) {
+            var left = remove(node.left, key);
+            return left == node.left ? node : node(node.key, node.value, node.priority, left, node.right);
+        }
+        if (cmp > 0) {
+            var right = remove(node.right, key);
+            return right == node.right ? node : node(node.key, node.value, node.priority, node.left, right);
+        }
+
+        return join(node.left, node.right);
+    }
+
+    private Node<K, A> join(Node<K, A> left, Node<K, A> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        return left.priority > right.priority
+                ? node(left.key, left.value, left.priority, left.left, join(left.right, right))
+                : node(right.key, right.value, right.priority, join(left, right.left), right.right);
+    }
+
+    public A query(Node<K, A> node, K from, boolean fromInclusive, K to, boolean toInclusive) {
+        while (node != null) {
+            if (below(node.key, from, fromInclusive)) {
+                node = node.right;
+            } else if (above(node.key, to, toInclusive)) {
+                node = node.left;
+            } else {
+                return monoid.combine(monoid.combine(suffix(node.left, from, fromInclusive), node.value),
+                        prefix(node.right, to, toInclusive));
+            }
+        }
+
+        return monoid.identity();
+    }
+
+    private A suffix(Node<K, A> node, K from, boolean inclusive) {
+        var result = monoid.identity();
+        while (node != null) {
+            if (below(node.key, from, inclusive)) {
+                node = node.right;
+            } else {
+                result = monoid.combine(monoid.combine(node.value, aggregate(node.right)), result);
+                node = node.left;
+            }
+        }
+
+        return result;
+    }
+
+    private A prefix(Node<K, A> node, K to, boolean inclusive) {
+        var result = monoid.identity();
+        while (node != null) {
+            if (above(node.key, to, inclusive)) {
+                node = node.left;
+            } else {
+                result = monoid.combine(result, monoid.combine(aggregate(node.left), node.value));
+                node = node.right;
+            }
+        }
+
+        return result;
+    }
+
+    private boolean below(K key, K from, boolean inclusive) {
+        if (from == null) {
+            return false;
+        }
+
+        var cmp = comparator.compare(key, from);
+        return cmp < 0 || (cmp == 0 && !inclusive);
+    }
+
+    private boolean above(K key, K to, boolean inclusive) {
+        if (to == null) {
+            return false;
+        }
+
+        var cmp = comparator.compare(key, to);
+        return cmp > 0 || (cmp == 0 && !inclusive);
+    }
+
+    private A aggregate(Node<K, A> node) {
+        return node == null ? monoid.identity() : node.aggregate;
+    }
+
+    private Node<K, A> node(K key, A value, int priority, Node<K, A> left, Node<K, A> right) {
+        return new Node<>(key, value, monoid.combine(monoid.combine(aggregate(left), value), aggregate(right)), priority, left, right);
+    }
+}
@@ -0,0 +1,31 @@
+package persistence.base.aggregate;
+
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+public interface Monoid<T, A> {
+    A identity();
+
+    A lift(T value);
+
+    A combine(A left, A right);
+
+    static <T, A> Monoid<T, A> of(A identity, Function<? super T, ? extends A> lift, BinaryOperator<A> combine) {
+        return new Monoid<>() {
+            @Override
+            public A identity() {
+                return identity;
+            }
+
+            @Override
+            public A lift(T value) {
+                return lift.apply(value);
+            }
+
+            @Override
+            public A combine(A left, A right) {
+                return combine.apply(left, right);
+            }
+        };
+    }
+}
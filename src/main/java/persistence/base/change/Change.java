@@ -0,0 +1,17 @@
+package persistence.base.change;
+
+public record Change<K, V>(ChangeType type, K key, V oldValue, V newValue) {
+    public static <K, V> Change<K, V> between(K key, boolean wasPresent, V oldValue, boolean isPresent, V newValue) {
+        if (wasPresent && isPresent) {
+            return oldValue == newValue || (oldValue != null && oldValue.equals(newValue))
+                    ? null
+                    : new Change<>(ChangeType.Replaced, key, oldValue, newValue);
+        }
+
+        if (wasPresent) {
+            return new Change<>(ChangeType.Removed, key, oldValue, null);
+        }
+
+        return isPresent ? new Change<>(ChangeType.Added, key, null, newValue) : null;
+    }
+}
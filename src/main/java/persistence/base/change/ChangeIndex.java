@@ -0,0 +1,185 @@
+package persistence.base.change;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.function.UnaryOperator;
+
+public class ChangeIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final int trackedFrom;
+    private int[][] touched = new int[8][];
+    private int[] touchedSizes = new int[8];
+    private int[] counts = new int[8];
+    private int[] hashes = new int[8];
+    private final BitSet hashed = new BitSet();
+    private final ArrayList<Object> keys = new ArrayList<>();
+    private final HashMap<Object, Integer> ids = new HashMap<>();
+
+    public ChangeIndex(int trackedFrom) {
+        this.trackedFrom = Math.max(trackedFrom, 0);
+        Arrays.fill(counts, -1);
+    }
+
+    public int idOf(Object key) {
+        var id = ids.get(key);
+        if (id == null) {
+            id = keys.size();
+            keys.add(key);
+            ids.put(key, id);
+        }
+
+        return id;
+    }
+
+    public int findId(Object key) {
+        var id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    public Object keyOf(int id) {
+        return keys.get(id);
+    }
+
+    public void touch(int version, int id) {
+        if (version < 0) {
+            return;
+        }
+
+        ensureCapacity(version);
+        var row = touched[version];
+        var size = touchedSizes[version];
+        if (row == null) {
+            row = touched[version] = new int[4];
+        } else if (size == row.length) {
+            row = touched[version] = Arrays.copyOf(row, size * 2);
+        }
+
+        row[size] = id;
+        touchedSizes[version] = size + 1;
+    }
+
+    public void touchKey(int version, Object key) {
+        touch(version, idOf(key));
+    }
+
+    public void recordCount(int version, int count) {
+        if (version < 0) {
+            return;
+        }
+
+        ensureCapacity(version);
+        counts[version] = count;
+    }
+
+    public int count(int version) {
+        return version < 0 || version >= counts.length ? -1 : counts[version];
+    }
+
+    public void recordHash(int version, int hash) {
+        if (version < 0) {
+            return;
+        }
+
+        ensureCapacity(version);
+        hashes[version] = hash;
+        hashed.set(version);
+    }
+
+    public boolean hasHash(int version) {
+        return version >= 0 && hashed.get(version);
+    }
+
+    public int hash(int version) {
+        return hashes[version];
+    }
+
+    public boolean covers(int version) {
+        return version >= trackedFrom && count(version) >= 0;
+    }
+
+    public int[] touched(int version) {
+        if (version < 0 || version >= touched.length || touched[version] == null) {
+            return EMPTY;
+        }
+
+        return Arrays.copyOf(touched[version], touchedSizes[version]);
+    }
+
+    public int[] touched(int fromExclusive, int toInclusive) {
+        var total = 0;
+        var last = Math.min(toInclusive, touched.length - 1);
+        for (var v = Math.max(fromExclusive + 1, 0); v <= last; v++) {
+            total += touchedSizes[v];
+        }
+
+        var result = new int[total];
+        var position = 0;
+        for (var v = Math.max(fromExclusive + 1, 0); v <= last; v++) {
+            if (touched[v] != null) {
+                System.arraycopy(touched[v], 0, result, position, touchedSizes[v]);
+                position += touchedSizes[v];
+            }
+        }
+
+        return distinct(result);
+    }
+
+    public ChangeIndex truncated(int version) {
+        return remapped(version, UnaryOperator.identity());
+    }
+
+    public ChangeIndex remapped(int version, UnaryOperator<Object> keyMapper) {
+        var result = new ChangeIndex(Math.min(trackedFrom, version));
+        for (var key : keys) {
+            var mapped = keyMapper.apply(key);
+            if (mapped != null) {
+                result.ids.put(mapped, result.keys.size());
+            }
+            result.keys.add(mapped);
+        }
+        result.ensureCapacity(version);
+        var last = Math.min(version, touched.length - 1);
+        for (var v = 0; v <= last; v++) {
+            result.touched[v] = touched[v] == null ? null : Arrays.copyOf(touched[v], touchedSizes[v]);
+            result.touchedSizes[v] = touchedSizes[v];
+            result.counts[v] = counts[v];
+            result.hashes[v] = hashes[v];
+        }
+        result.hashed.or(hashed.get(0, version + 1));
+
+        return result;
+    }
+
+    private void ensureCapacity(int version) {
+        if (version < touched.length) {
+            return;
+        }
+
+        var length = Math.max(version + 1, touched.length * 2);
+        var oldLength = counts.length;
+        touched = Arrays.copyOf(touched, length);
+        touchedSizes = Arrays.copyOf(touchedSizes, length);
+        counts = Arrays.copyOf(counts, length);
+        hashes = Arrays.copyOf(hashes, length);
+        Arrays.fill(counts, oldLength, length, -1);
+    }
+
+    private static int[] distinct(int[] ids) {
+        if (ids.length < 2) {
+            return ids;
+        }
+
+        Arrays.sort(ids);
+        var size = 1;
+        for (var i = 1; i < ids.length; i++) {
+            if (ids[i] != ids[size - 1]) {
+                ids[size++] = ids[i];
+            }
+        }
+
+        return size == ids.length ? ids : Arrays.copyOf(ids, size);
+    }
+}
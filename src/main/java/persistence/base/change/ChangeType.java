@@ -0,0 +1,7 @@
+package persistence.base.change;
+
+public enum ChangeType {
+    Added,
+    Removed,
+    Replaced
+}
@@ -0,0 +1,6 @@
+package persistence.base.change;
+
+@FunctionalInterface
+public interface ConflictResolver<K, V> {
+    V resolve(K key, V baseValue, V leftValue, V rightValue);
+}
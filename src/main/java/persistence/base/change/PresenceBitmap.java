@@ -0,0 +1,62 @@
+package persistence.base.change;
+
+import java.util.Arrays;
+
+public final class PresenceBitmap {
+    private static final int CHUNK_SHIFT = 12, CHUNK_WORDS = 1 << (CHUNK_SHIFT - 6);
+    public static final PresenceBitmap EMPTY = new PresenceBitmap(new long[0][], 0);
+
+    private final long[][] chunks;
+    private final int cardinality;
+
+    private PresenceBitmap(long[][] chunks, int cardinality) {
+        this.chunks = chunks;
+        this.cardinality = cardinality;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean get(int id) {
+        var chunk = id >>> CHUNK_SHIFT;
+        if (chunk >= chunks.length || chunks[chunk] == null) {
+            return false;
+        }
+
+        return (chunks[chunk][(id >>> 6) & (CHUNK_WORDS - 1)] & (1L << id)) != 0;
+    }
+
+    public PresenceBitmap with(int id, boolean present) {
+        if (get(id) == present) {
+            return this;
+        }
+
+        var chunk = id >>> CHUNK_SHIFT;
+        var newChunks = Arrays.copyOf(chunks, Math.max(chunks.length, chunk + 1));
+        var words = newChunks[chunk] == null ? new long[CHUNK_WORDS] : newChunks[chunk].clone();
+        words[(id >>> 6) & (CHUNK_WORDS - 1)] ^= 1L << id;
+        newChunks[chunk] = words;
+        return new PresenceBitmap(newChunks, cardinality + (present ? 1 : -1));
+    }
+
+    public int nextSetBit(int from) {
+        var word = (from >>> 6) & (CHUNK_WORDS - 1);
+        var mask = -1L << from;
+        for (var chunk = from >>> CHUNK_SHIFT; chunk < chunks.length; chunk++, word = 0, mask = -1L) {
+            var words = chunks[chunk];
+            if (words == null) {
+                continue;
+            }
+
+            for (; word < CHUNK_WORDS; word++, mask = -1L) {
+                var bits = words[word] & mask;
+                if (bits != 0) {
+                    return (chunk << CHUNK_SHIFT) + (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,15 @@
+package persistence.base.change;
+
+import persistence.base.aggregate.AggregateIndex;
+
+public class PresenceIndex extends AggregateIndex<PresenceBitmap> {
+    @Override
+    public PresenceIndex truncated(int version) {
+        return (PresenceIndex) super.truncated(version);
+    }
+
+    @Override
+    protected AggregateIndex<PresenceBitmap> emptyCopy() {
+        return new PresenceIndex();
+    }
+}
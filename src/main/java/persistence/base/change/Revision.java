@@ -0,0 +1,4 @@
+package persistence.base.change;
+
+public record Revision<V>(int version, V value) {
+}
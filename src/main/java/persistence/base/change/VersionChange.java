@@ -0,0 +1,6 @@
+package persistence.base.change;
+
+import java.util.List;
+
+public record VersionChange<K, V>(int version, List<Change<K, V>> changes) {
+}
@@ -0,0 +1,171 @@
+package persistence.base.change;
+
+import persistence.base.PersistentContent;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+public class VersionPublisher<K, V> implements Flow.Publisher<List<VersionChange<K, V>>> {
+    private final PersistentContent<?> content;
+    private final BiFunction<Integer, Integer, Stream<Change<K, V>>> diff;
+    private final Executor executor;
+    private final int maxBatch;
+    private final List<VersionSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicInteger latest = new AtomicInteger();
+
+    public VersionPublisher(PersistentContent<?> content, BiFunction<Integer, Integer, Stream<Change<K, V>>> diff,
+                            Executor executor, int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive!");
+        }
+
+        this.content = content;
+        this.diff = diff;
+        this.executor = Objects.requireNonNull(executor);
+        this.maxBatch = maxBatch;
+    }
+
+    public void committed(int version) {
+        latest.accumulateAndGet(version, Math::max);
+        for (var subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<VersionChange<K, V>>> subscriber) {
+        Objects.requireNonNull(subscriber);
+        VersionSubscription subscription;
+        synchronized (this) {
+            // the content only notifies publishers that have subscribers, so idle publishers cost the writer nothing
+            if (subscriptions.isEmpty()) {
+                content.publish(this);
+            }
+            subscription = new VersionSubscription(subscriber,
+                    latest.accumulateAndGet(content.maxModification.value, Math::max));
+            subscriptions.add(subscription);
+        }
+        subscriber.onSubscribe(subscription);
+    }
+
+    private synchronized void unsubscribe(VersionSubscription subscription) {
+        if (subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+            content.unpublish(this);
+        }
+    }
+
+    private List<Change<K, V>> changes(int version) {
+        while (true) {
+            var stamp = content.writeStamp();
+            if ((stamp & 1) == 0) {
+                try {
+                    var result = diff.apply(version - 1, version).toList();
+                    VarHandle.acquireFence();
+                    if (content.writeStamp() == stamp) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    VarHandle.acquireFence();
+                    if (content.writeStamp() == stamp) {
+                        throw e;
+                    }
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private final class VersionSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super List<VersionChange<K, V>>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private int delivered;
+
+        private VersionSubscription(Flow.Subscriber<? super List<VersionChange<K, V>>> subscriber, int delivered) {
+            this.subscriber = subscriber;
+            this.delivered = delivered;
+        }
+
+        private void signal() {
+            if (demand.get() > 0 && !cancelled) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            var missed = 1;
+            do {
+                // every signal to the subscriber leaves from here, so they never overlap
+                while (!cancelled) {
+                    var error = this.error;
+                    if (error != null) {
+                        cancel();
+                        subscriber.onError(error);
+                        break;
+                    }
+                    if (demand.get() == 0 || delivered >= latest.get()) {
+                        break;
+                    }
+
+                    var last = Math.min(latest.get(), delivered + maxBatch);
+                    var batch = new ArrayList<VersionChange<K, V>>(last - delivered);
+                    try {
+                        for (var version = delivered + 1; version <= last; version++) {
+                            batch.add(new VersionChange<>(version, changes(version)));
+                        }
+                    } catch (RuntimeException e) {
+                        cancel();
+                        subscriber.onError(e);
+                        break;
+                    }
+
+                    delivered = last;
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(batch);
+                    } catch (RuntimeException e) {
+                        cancel();
+                        var thread = Thread.currentThread();
+                        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested amount must be positive!");
+                schedule();
+                return;
+            }
+
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            unsubscribe(this);
+        }
+    }
+}
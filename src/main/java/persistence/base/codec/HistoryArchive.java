@@ -0,0 +1,125 @@
+package persistence.base.codec;
+
+import persistence.base.change.Revision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public final class HistoryArchive<V> {
+    private final HistoryBlock<V>[] blocks;
+    private final int size;
+
+    @SuppressWarnings("unchecked")
+    public HistoryArchive(HistoryBlock<V> block) {
+        this((HistoryBlock<V>[]) new HistoryBlock<?>[]{block});
+    }
+
+    private HistoryArchive(HistoryBlock<V>[] blocks) {
+        this.blocks = blocks;
+        size = Arrays.stream(blocks).mapToInt(HistoryBlock::size).sum();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int firstVersion() {
+        return blocks[0].firstVersion();
+    }
+
+    public int lastVersion() {
+        return blocks[blocks.length - 1].lastVersion();
+    }
+
+    public long bytes() {
+        return 16 + 4L * blocks.length + Arrays.stream(blocks).mapToLong(HistoryBlock::bytes).sum();
+    }
+
+    public int spilledSize() {
+        return Arrays.stream(blocks).filter(HistoryBlock::spilled).mapToInt(HistoryBlock::size).sum();
+    }
+
+    public long spilledBytes() {
+        return Arrays.stream(blocks).mapToLong(HistoryBlock::spilledBytes).sum();
+    }
+
+    public HistoryArchive<V> spilled(int beforeStep, HistorySegment segment, HistoryCodec<V> codec, boolean keepLast) {
+        var newBlocks = blocks.clone();
+        var limit = keepLast ? blocks.length - 1 : blocks.length;
+        for (var i = 0; i < limit && blocks[i].lastVersion() < beforeStep; i++) {
+            newBlocks[i] = blocks[i].spill(segment, codec);
+        }
+
+        return new HistoryArchive<>(newBlocks);
+    }
+
+    public HistoryArchive<V> appended(HistoryBlock<V> block) {
+        var newBlocks = Arrays.copyOf(blocks, blocks.length + 1);
+        newBlocks[blocks.length] = block;
+        return new HistoryArchive<>(newBlocks);
+    }
+
+    public Revision<V> floor(int step) {
+        var index = blockIndex(step);
+        if (index < 0) {
+            return null;
+        }
+
+        var block = blocks[index];
+        var versions = block.versions();
+        var position = Arrays.binarySearch(versions, step);
+        if (position < 0) {
+            position = -position - 2;
+        }
+
+        return new Revision<>(versions[position], block.value(position));
+    }
+
+    public Stream<Revision<V>> history(int fromStep, int toStep) {
+        var first = Math.max(0, blockIndex(fromStep));
+        return IntStream.range(first, blocks.length)
+                .mapToObj(i -> blocks[i])
+                .takeWhile(block -> block.firstVersion() <= toStep)
+                .flatMap(block -> {
+                    var versions = block.versions();
+                    var values = block.values();
+                    return IntStream.range(0, versions.length)
+                            .filter(i -> versions[i] >= fromStep && versions[i] <= toStep)
+                            .mapToObj(i -> new Revision<>(versions[i], values.get(i)));
+                });
+    }
+
+    public HistoryArchive<V> truncated(int step, List<Revision<V>> overflow) {
+        var kept = new ArrayList<HistoryBlock<V>>();
+        for (var block : blocks) {
+            if (block.lastVersion() <= step) {
+                kept.add(block);
+            } else {
+                if (block.firstVersion() <= step) {
+                    history(block.firstVersion(), step).forEach(overflow::add);
+                }
+                break;
+            }
+        }
+
+        return kept.isEmpty() ? null : new HistoryArchive<>(kept.toArray(Arrays.copyOf(blocks, 0)));
+    }
+
+    private int blockIndex(int step) {
+        int low = 0, high = blocks.length - 1, result = -1;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            if (blocks[middle].firstVersion() <= step) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return result;
+    }
+}
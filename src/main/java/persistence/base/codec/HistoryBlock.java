@@ -0,0 +1,126 @@
+package persistence.base.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.List;
+
+public final class HistoryBlock<V> {
+    private final int firstVersion, lastVersion, size;
+    private final byte[] versions;
+    private final Object values;
+    private final HistoryCodec<V> codec;
+    private final HistorySegment segment;
+    private final long offset;
+    private final int length;
+    private SoftReference<HistoryBlock<V>> resident;
+
+    private HistoryBlock(int firstVersion, int lastVersion, int size, byte[] versions, Object values, HistoryCodec<V> codec) {
+        this(firstVersion, lastVersion, size, versions, values, codec, null, 0, 0);
+    }
+
+    private HistoryBlock(int firstVersion, int lastVersion, int size, byte[] versions, Object values, HistoryCodec<V> codec,
+                         HistorySegment segment, long offset, int length) {
+        this.firstVersion = firstVersion;
+        this.lastVersion = lastVersion;
+        this.size = size;
+        this.versions = versions;
+        this.values = values;
+        this.codec = codec;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static <V> HistoryBlock<V> of(int[] versions, List<? extends V> values, HistoryCodec<V> codec) {
+        var out = new ByteArrayOutputStream();
+        for (var i = 1; i < versions.length; i++) {
+            VarInts.write(out, versions[i] - versions[i - 1]);
+        }
+
+        return new HistoryBlock<>(versions[0], versions[versions.length - 1], versions.length, out.toByteArray(),
+                codec.encode(values), codec);
+    }
+
+    public int firstVersion() {
+        return firstVersion;
+    }
+
+    public int lastVersion() {
+        return lastVersion;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean spilled() {
+        return segment != null;
+    }
+
+    public HistoryBlock<V> spill(HistorySegment segment, HistoryCodec<V> codec) {
+        if (spilled()) {
+            return this;
+        }
+        if (codec != this.codec) {
+            return of(versions(), values(), codec).spill(segment, codec);
+        }
+
+        var out = new ByteArrayOutputStream();
+        VarInts.write(out, versions.length);
+        out.writeBytes(versions);
+        out.writeBytes(codec.toBytes(values));
+        var bytes = out.toByteArray();
+        return new HistoryBlock<>(firstVersion, lastVersion, size, null, null, codec, segment, segment.append(bytes), bytes.length);
+    }
+
+    private HistoryBlock<V> resident() {
+        if (segment == null) {
+            return this;
+        }
+
+        var block = resident == null ? null : resident.get();
+        if (block == null) {
+            var bytes = segment.read(offset, length);
+            var position = new int[1];
+            var versionsLength = (int) VarInts.read(bytes, position);
+            var versionsEnd = position[0] + versionsLength;
+            block = new HistoryBlock<>(firstVersion, lastVersion, size,
+                    Arrays.copyOfRange(bytes, position[0], versionsEnd),
+                    codec.fromBytes(Arrays.copyOfRange(bytes, versionsEnd, bytes.length)), codec);
+            resident = new SoftReference<>(block);
+        }
+
+        return block;
+    }
+
+    public int[] versions() {
+        var block = resident();
+        var result = new int[size];
+        var position = new int[1];
+        result[0] = firstVersion;
+        for (var i = 1; i < size; i++) {
+            result[i] = result[i - 1] + (int) VarInts.read(block.versions, position);
+        }
+
+        return result;
+    }
+
+    public V value(int index) {
+        var block = resident();
+        return codec.decode(block.values, index);
+    }
+
+    public List<V> values() {
+        var block = resident();
+        return codec.decodeAll(block.values, size);
+    }
+
+    public long bytes() {
+        return spilled() ? 72 : 40 + 16 + versions.length + codec.encodedBytes(values);
+    }
+
+    public long spilledBytes() {
+        return length;
+    }
+}
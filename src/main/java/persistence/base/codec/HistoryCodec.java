@@ -0,0 +1,230 @@
+package persistence.base.codec;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+public interface HistoryCodec<V> {
+    Object encode(List<? extends V> values);
+
+    V decode(Object encoded, int index);
+
+    long encodedBytes(Object encoded);
+
+    default List<V> decodeAll(Object encoded, int count) {
+        var result = new ArrayList<V>(count);
+        for (var i = 0; i < count; i++) {
+            result.add(decode(encoded, i));
+        }
+
+        return result;
+    }
+
+    boolean spillable();
+
+    byte[] toBytes(Object encoded);
+
+    Object fromBytes(byte[] bytes);
+
+    HistoryCodec<Integer> INTEGERS = numeric(Integer::longValue, value -> (int) value);
+
+    HistoryCodec<Long> LONGS = numeric(Long::longValue, value -> value);
+
+    static <V> HistoryCodec<V> plain() {
+        return new HistoryCodec<>() {
+            @Override
+            public Object encode(List<? extends V> values) {
+                return values.toArray();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V decode(Object encoded, int index) {
+                return (V) ((Object[]) encoded)[index];
+            }
+
+            @Override
+            public long encodedBytes(Object encoded) {
+                return 16 + 4L * ((Object[]) encoded).length;
+            }
+
+            @Override
+            public boolean spillable() {
+                return false;
+            }
+
+            @Override
+            public byte[] toBytes(Object encoded) {
+                throw new IllegalStateException("Such a codec cannot spill history!");
+            }
+
+            @Override
+            public Object fromBytes(byte[] bytes) {
+                throw new IllegalStateException("Such a codec cannot spill history!");
+            }
+        };
+    }
+
+    static <V> HistoryCodec<V> serializable() {
+        return new HistoryCodec<>() {
+            @Override
+            public Object encode(List<? extends V> values) {
+                var out = new ByteArrayOutputStream();
+                try (var objects = new ObjectOutputStream(out)) {
+                    objects.writeObject(values.toArray());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return out.toByteArray();
+            }
+
+            @Override
+            public V decode(Object encoded, int index) {
+                return decodeAll(encoded, index + 1).get(index);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<V> decodeAll(Object encoded, int count) {
+                try (var objects = new ObjectInputStream(new ByteArrayInputStream((byte[]) encoded))) {
+                    return (List<V>) Arrays.asList((Object[]) objects.readObject());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public long encodedBytes(Object encoded) {
+                return 16 + ((byte[]) encoded).length;
+            }
+
+            @Override
+            public boolean spillable() {
+                return true;
+            }
+
+            @Override
+            public byte[] toBytes(Object encoded) {
+                return (byte[]) encoded;
+            }
+
+            @Override
+            public Object fromBytes(byte[] bytes) {
+                return bytes;
+            }
+        };
+    }
+
+    static <V> HistoryCodec<V> numeric(ToLongFunction<V> toLong, LongFunction<V> fromLong) {
+        return new HistoryCodec<>() {
+            @Override
+            public Object encode(List<? extends V> values) {
+                var out = new ByteArrayOutputStream();
+                var nulls = new byte[(values.size() + 7) / 8];
+                var hasNulls = false;
+                for (var i = 0; i < values.size(); i++) {
+                    if (values.get(i) == null) {
+                        nulls[i / 8] |= (byte) (1 << (i % 8));
+                        hasNulls = true;
+                    }
+                }
+
+                out.write(hasNulls ? 1 : 0);
+                if (hasNulls) {
+                    out.writeBytes(nulls);
+                }
+
+                var previous = 0L;
+                for (var value : values) {
+                    if (value != null) {
+                        var current = toLong.applyAsLong(value);
+                        VarInts.write(out, VarInts.zigZag(current - previous));
+                        previous = current;
+                    }
+                }
+
+                return new Encoded(values.size(), out.toByteArray());
+            }
+
+            @Override
+            public V decode(Object encoded, int index) {
+                var block = (Encoded) encoded;
+                var position = new int[]{1};
+                var skipped = 0;
+                if (block.bytes[0] != 0) {
+                    if ((block.bytes[1 + index / 8] & (1 << (index % 8))) != 0) {
+                        return null;
+                    }
+
+                    for (var i = 0; i < index; i++) {
+                        if ((block.bytes[1 + i / 8] & (1 << (i % 8))) != 0) {
+                            skipped++;
+                        }
+                    }
+                    position[0] += (block.count + 7) / 8;
+                }
+
+                var current = 0L;
+                for (var i = 0; i <= index - skipped; i++) {
+                    current += VarInts.unZigZag(VarInts.read(block.bytes, position));
+                }
+
+                return fromLong.apply(current);
+            }
+
+            @Override
+            public List<V> decodeAll(Object encoded, int count) {
+                var block = (Encoded) encoded;
+                var position = new int[]{block.bytes[0] != 0 ? 1 + (count + 7) / 8 : 1};
+                var result = new ArrayList<V>(count);
+                var current = 0L;
+                for (var i = 0; i < count; i++) {
+                    if (block.bytes[0] != 0 && (block.bytes[1 + i / 8] & (1 << (i % 8))) != 0) {
+                        result.add(null);
+                        continue;
+                    }
+
+                    current += VarInts.unZigZag(VarInts.read(block.bytes, position));
+                    result.add(fromLong.apply(current));
+                }
+
+                return result;
+            }
+
+            @Override
+            public long encodedBytes(Object encoded) {
+                return 32 + ((Encoded) encoded).bytes.length;
+            }
+
+            @Override
+            public boolean spillable() {
+                return true;
+            }
+
+            @Override
+            public byte[] toBytes(Object encoded) {
+                var block = (Encoded) encoded;
+                var out = new ByteArrayOutputStream();
+                VarInts.write(out, block.count);
+                out.writeBytes(block.bytes);
+                return out.toByteArray();
+            }
+
+            @Override
+            public Object fromBytes(byte[] bytes) {
+                var position = new int[1];
+                var count = (int) VarInts.read(bytes, position);
+                return new Encoded(count, Arrays.copyOfRange(bytes, position[0], bytes.length));
+            }
+        };
+    }
+
+    record Encoded(int count, byte[] bytes) {
+    }
+}
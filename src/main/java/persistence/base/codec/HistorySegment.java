@@ -0,0 +1,97 @@
+package persistence.base.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file that holds spilled node history. Spilled versions are read back from it on demand,
+ * so closing the segment makes every version spilled into it unreadable.
+ */
+public final class HistorySegment implements Closeable {
+    private static final long WINDOW = 64L << 20;
+
+    private final FileChannel channel;
+    private long size;
+    private MappedByteBuffer mapped;
+    private long mappedFrom, mappedTo;
+    private boolean closed;
+
+    private HistorySegment(FileChannel channel) throws IOException {
+        this.channel = channel;
+        size = channel.size();
+    }
+
+    public static HistorySegment open(Path path) {
+        try {
+            return new HistorySegment(FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized long append(byte[] bytes) {
+        checkOpen();
+        var offset = size;
+        try {
+            var buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        size += bytes.length;
+        return offset;
+    }
+
+    public synchronized byte[] read(long offset, int length) {
+        checkOpen();
+        if (offset < 0 || offset + length > size) {
+            throw new IndexOutOfBoundsException("Segment range is out of bounds: " + offset + "+" + length);
+        }
+
+        if (mapped == null || offset < mappedFrom || offset + length > mappedTo) {
+            var to = Math.min(size, Math.max(offset + length, offset + WINDOW));
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, to - offset);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mappedFrom = offset;
+            mappedTo = to;
+        }
+
+        var result = new byte[length];
+        mapped.get((int) (offset - mappedFrom), result);
+        return result;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The history segment is closed!");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        mapped = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
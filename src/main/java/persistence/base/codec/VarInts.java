@@ -0,0 +1,35 @@
+package persistence.base.codec;
+
+import java.io.ByteArrayOutputStream;
+
+final class VarInts {
+    private VarInts() {
+    }
+
+    static void write(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long read(byte[] bytes, int[] position) {
+        long result = 0;
+        for (var shift = 0; ; shift += 7) {
+            var b = bytes[position[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,194 @@
+package persistence.base.index;
+
+import persistence.base.aggregate.AggregateIndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class SecondaryIndex<K, V, A> extends AggregateIndex<SecondaryIndex.Node<Integer, List<SecondaryIndex.Bucket<K, A>>>> {
+    private static final Comparator<Integer> HASHES = Integer::compare;
+
+    private final Function<? super V, ? extends A> attribute;
+    private final Comparator<? super K> keyOrder;
+
+    public SecondaryIndex(Function<? super V, ? extends A> attribute, Comparator<? super K> keyOrder) {
+        this.attribute = attribute;
+        this.keyOrder = keyOrder;
+    }
+
+    public record Node<K, V>(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {
+    }
+
+    public record Bucket<K, A>(A attribute, Node<K, Boolean> keys, int size) {
+    }
+
+    @Override
+    protected SecondaryIndex<K, V, A> emptyCopy() {
+        return new SecondaryIndex<>(attribute, keyOrder);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public SecondaryIndex<K, V, A> truncated(int version) {
+        return (SecondaryIndex<K, V, A>) super.truncated(version);
+    }
+
+    public A attributeOf(V value) {
+        return attribute.apply(value);
+    }
+
+    public Node<Integer, List<Bucket<K, A>>> update(Node<Integer, List<Bucket<K, A>>> root, K key, V oldValue, V newValue) {
+        var oldAttribute = oldValue == null ? null : attribute.apply(oldValue);
+        var newAttribute = newValue == null ? null : attribute.apply(newValue);
+        if (oldValue != null && newValue != null && Objects.equals(oldAttribute, newAttribute)) {
+            return root;
+        }
+
+        if (oldValue != null) {
+            root = change(root, oldAttribute, key, false);
+        }
+        if (newValue != null) {
+            root = change(root, newAttribute, key, true);
+        }
+
+        return root;
+    }
+
+    public int count(Node<Integer, List<Bucket<K, A>>> root, Object attribute) {
+        var bucket = bucket(root, attribute);
+        return bucket == null ? 0 : bucket.size;
+    }
+
+    public void forEach(Node<Integer, List<Bucket<K, A>>> root, Object attribute, Consumer<? super K> action) {
+        var bucket = bucket(root, attribute);
+        if (bucket != null) {
+            forEach(bucket.keys, action);
+        }
+    }
+
+    private Bucket<K, A> bucket(Node<Integer, List<Bucket<K, A>>> root, Object attribute) {
+        var buckets = get(root, Objects.hashCode(attribute), HASHES);
+        if (buckets != null) {
+            for (var bucket : buckets) {
+                if (Objects.equals(bucket.attribute, attribute)) {
+                    return bucket;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private Node<Integer, List<Bucket<K, A>>> change(Node<Integer, List<Bucket<K, A>>> root, A attribute, K key, boolean add) {
+        var hash = Objects.hashCode(attribute);
+        var buckets = get(root, hash, HASHES);
+        var newBuckets = new ArrayList<Bucket<K, A>>(buckets == null ? 1 : buckets.size() + 1);
+        Bucket<K, A> bucket = null;
+        if (buckets != null) {
+            for (var existing : buckets) {
+                if (Objects.equals(existing.attribute, attribute)) {
+                    bucket = existing;
+                } else {
+                    newBuckets.add(existing);
+                }
+            }
+        }
+
+        var keys = bucket == null ? null : bucket.keys;
+        var size = bucket == null ? 0 : bucket.size;
+        if (add) {
+            keys = put(keys, key, true, ThreadLocalRandom.current().nextInt(), keyOrder);
+            size++;
+        } else {
+            keys = remove(keys, key, keyOrder);
+            size--;
+        }
+
+        if (size > 0) {
+            newBuckets.add(new Bucket<>(attribute, keys, size));
+        }
+
+        return newBuckets.isEmpty()
+                ? remove(root, hash, HASHES)
+                : put(root, hash, List.copyOf(newBuckets), ThreadLocalRandom.current().nextInt(), HASHES);
+    }
+
+    private static <T, U> U get(Node<T, U> node, T key, Comparator<? super T> comparator) {
+        while (node != null) {
+            var cmp = comparator.compare(key, node.key);
+            if (cmp == 0) {
+                return node.value;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+
+        return null;
+    }
+
+    private static <T> void forEach(Node<T, ?> node, Consumer<? super T> action) {
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.key);
+            node = node.right;
+        }
+    }
+
+    private static <T, U> Node<T, U> put(Node<T, U> node, T key, U value, int priority, Comparator<? super T> comparator) {
+        if (node == null) {
+            return new Node<>(key, value, priority, null, null);
+        }
+
+        var cmp = comparator.compare(key, node.key);
+        if (cmp == 0) {
+            return new Node<>(node.key, value, node.priority, node.left, node.right);
+        }
+
+        if (cmp < 0) {
+            var left = put(node.left, key, value, priority, comparator);
+            return left.priority > node.priority
+                    ? new Node<>(left.key, left.value, left.priority, left.left, new Node<>(node.key, node.value, node.priority, left.right, node.right))
+                    : new Node<>(node.key, node.value, node.priority, left, node.right);
+        }
+
+        var right = put(node.right, key, value, priority, comparator);
+        return right.priority > node.priority
+                ? new Node<>(right.key, right.value, right.priority, new Node<>(node.key, node.value, node.priority, node.left, right.left), right.right)
+                : new Node<>(node.key, node.value, node.priority, node.left, right);
+    }
+
+    private static <T, U> Node<T, U> remove(Node<T, U> node, T key, Comparator<? super T> comparator) {
+        if (node == null) {
+            return null;
+        }
+
+        var cmp = comparator.compare(key, node.key);
+        if (cmp < 0) {
+            var left = remove(node.left, key, comparator);
+            return left == node.left ? node : new Node<>(node.key, node.value, node.priority, left, node.right);
+        }
+        if (cmp > 0) {
+            var right = remove(node.right, key, comparator);
+            return right == node.right ? node : new Node<>(node.key, node.value, node.priority, node.left, right);
+        }
+
+        return join(node.left, node.right);
+    }
+
+    private static <T, U> Node<T, U> join(Node<T, U> left, Node<T, U> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        return left.priority > right.priority
+                ? new Node<>(left.key, left.value, left.priority, left.left, join(left.right, right))
+                : new Node<>(right.key, right.value, right.priority, join(left, right.left), right.right);
+    }
+}
@@ -1,37 +1,45 @@
 package persistence.base.tree;
 
 import java.util.*;
+import java.util.function.BiPredicate;
 
 public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
     public Node<TK, TV> root;
+    private int size;
+
+    private final Comparator<? super TK> comparator;
+
+    public BinaryTree() {
+        this(null);
+    }
+
+    public BinaryTree(Comparator<? super TK> comparator) {
+        this.comparator = comparator;
+    }
+
+    public Comparator<? super TK> comparator() {
+        return comparator;
+    }
+
+    private int compare(TK key, int hash, Node<TK, TV> node) {
+        return comparator == null ? Integer.compare(hash, node.hash) : comparator.compare(key, node.key);
+    }
 
     public Node<TK, TV> find(TK key) {
-        var isFound = false;
-        var temp = root;
-        Node<TK, TV> item = null;
         var hash = key.hashCode();
-        while (!isFound) {
-            if (temp == null) {
-                break;
-            }
-
-            if (hash < temp.hash) {
+        var temp = root;
+        while (temp != null) {
+            var cmp = compare(key, hash, temp);
+            if (cmp < 0) {
                 temp = temp.left;
-            } else if (hash > temp.hash) {
+            } else if (cmp > 0) {
                 temp = temp.right;
-            }
-
-            if (temp != null && hash == temp.hash) {
-                isFound = true;
-                item = temp;
+            } else {
+                return temp;
             }
         }
 
-        if (isFound) {
-            return item;
-        } else {
-            return null;
-        }
+        return null;
     }
 
     public void insert(TK key, TV item) {
@@ -43,6 +51,7 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
         }
 
         var newItem = new Node<>(key, item);
+        size++;
         if (root == null) {
             root = newItem;
             root.colour = Color.Black;
@@ -53,7 +62,7 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
         var X = root;
         while (X != null) {
             Y = X;
-            if (newItem.hash < X.hash) {
+            if (compare(key, newItem.hash, X) < 0) {
                 X = X.left;
             } else {
                 X = X.right;
@@ -61,9 +70,7 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
         }
 
         newItem.parent = Y;
-        if (Y == null) {
-            root = newItem;
-        } else if (newItem.hash < Y.hash) {
+        if (compare(key, newItem.hash, Y) < 0) {
             Y.left = newItem;
         } else {
             Y.right = newItem;
@@ -76,22 +83,293 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
     }
 
     public TV findNearestLess(TK key) {
-        var hashedKey = key.hashCode();
-        var node = this.root;
+        var node = floorNode(key);
+        return node == null ? null : node.data;
+    }
+
+    public Node<TK, TV> floorNode(TK key) {
+        return nearest(key, true, true);
+    }
+
+    public Node<TK, TV> lowerNode(TK key) {
+        return nearest(key, true, false);
+    }
+
+    public Node<TK, TV> ceilingNode(TK key) {
+        return nearest(key, false, true);
+    }
+
+    public Node<TK, TV> higherNode(TK key) {
+        return nearest(key, false, false);
+    }
+
+    private Node<TK, TV> nearest(TK key, boolean below, boolean inclusive) {
+        var hash = key.hashCode();
+        var node = root;
         Node<TK, TV> optimalNode = null;
         while (node != null) {
-            if (node.hash <= hashedKey &&
-                    (optimalNode == null ||
-                            hashedKey - optimalNode.hash > hashedKey - node.hash
-                    )
-            ) {
+            var cmp = compare(key, hash, node);
+            if (cmp == 0 && inclusive) {
+                return node;
+            }
+
+            if (below ? cmp > 0 : cmp < 0) {
                 optimalNode = node;
+                node = below ? node.right : node.left;
+            } else {
+                node = below ? node.left : node.right;
             }
+        }
+
+        return optimalNode;
+    }
 
-            node = node.hash > hashedKey ? node.left : node.right;
+    public Node<TK, TV> firstNode() {
+        var node = root;
+        while (node != null && node.left != null) {
+            node = node.left;
         }
 
-        return optimalNode == null ? null : optimalNode.data;
+        return node;
+    }
+
+    public Node<TK, TV> lastNode() {
+        var node = root;
+        while (node != null && node.right != null) {
+            node = node.right;
+        }
+
+        return node;
+    }
+
+    public static <TK, TV> Node<TK, TV> successor(Node<TK, TV> node) {
+        if (node.right != null) {
+            node = node.right;
+            while (node.left != null) {
+                node = node.left;
+            }
+
+            return node;
+        }
+
+        var parent = node.parent;
+        while (parent != null && node == parent.right) {
+            node = parent;
+            parent = parent.parent;
+        }
+
+        return parent;
+    }
+
+    public static <TK, TV> Node<TK, TV> predecessor(Node<TK, TV> node) {
+        if (node.left != null) {
+            node = node.left;
+            while (node.right != null) {
+                node = node.right;
+            }
+
+            return node;
+        }
+
+        var parent = node.parent;
+        while (parent != null && node == parent.left) {
+            node = parent;
+            parent = parent.parent;
+        }
+
+        return parent;
+    }
+
+    public int compareKeys(TK first, TK second) {
+        return comparator == null
+                ? Integer.compare(first.hashCode(), second.hashCode())
+                : comparator.compare(first, second);
+    }
+
+    public boolean delete(TK key) {
+        var node = find(key);
+        if (node == null) {
+            return false;
+        }
+
+        deleteNode(node);
+        size--;
+        return true;
+    }
+
+    public int prune(BiPredicate<TK, TV> condition) {
+        var toDelete = new ArrayList<TK>();
+        for (var entry : toList()) {
+            if (condition.test(entry.getKey(), entry.getValue())) {
+                toDelete.add(entry.getKey());
+            }
+        }
+
+        toDelete.forEach(this::delete);
+        return toDelete.size();
+    }
+
+    private void deleteNode(Node<TK, TV> item) {
+        if (item.left != null && item.right != null) {
+            // move the successor node into the deleted place so node handles keep their keys
+            var successor = item.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+
+            swapWithSuccessor(item, successor);
+        }
+
+        var replacement = item.left != null ? item.left : item.right;
+        if (replacement != null) {
+            replacement.parent = item.parent;
+            if (item.parent == null) {
+                root = replacement;
+            } else if (item == item.parent.left) {
+                item.parent.left = replacement;
+            } else {
+                item.parent.right = replacement;
+            }
+
+            item.left = item.right = item.parent = null;
+            if (item.colour == Color.Black) {
+                deleteFixUp(replacement);
+            }
+        } else if (item.parent == null) {
+            root = null;
+        } else {
+            // no children - use the item itself as a phantom leaf while fixing
+            if (item.colour == Color.Black) {
+                deleteFixUp(item);
+            }
+
+            if (item.parent != null) {
+                if (item == item.parent.left) {
+                    item.parent.left = null;
+                } else if (item == item.parent.right) {
+                    item.parent.right = null;
+                }
+                item.parent = null;
+            }
+        }
+    }
+
+    private void swapWithSuccessor(Node<TK, TV> item, Node<TK, TV> successor) {
+        var parent = item.parent;
+        var successorParent = successor.parent;
+        var successorRight = successor.right;
+        var colour = item.colour;
+
+        successor.parent = parent;
+        if (parent == null) {
+            root = successor;
+        } else if (item == parent.left) {
+            parent.left = successor;
+        } else {
+            parent.right = successor;
+        }
+
+        successor.left = item.left;
+        successor.left.parent = successor;
+        if (item.right == successor) {
+            successor.right = item;
+            item.parent = successor;
+        } else {
+            successor.right = item.right;
+            successor.right.parent = successor;
+            successorParent.left = item;
+            item.parent = successorParent;
+        }
+
+        item.left = null;
+        item.right = successorRight;
+        if (successorRight != null) {
+            successorRight.parent = item;
+        }
+
+        item.colour = successor.colour;
+        successor.colour = colour;
+    }
+
+    private void deleteFixUp(Node<TK, TV> item) {
+        while (item != root && colourOf(item) == Color.Black) {
+            if (item == leftOf(item.parent)) {
+                var sibling = rightOf(item.parent);
+                if (colourOf(sibling) == Color.Red) { //Case 1: sibling is red
+                    setColour(sibling, Color.Black);
+                    setColour(item.parent, Color.Red);
+                    leftRotate(item.parent);
+                    sibling = rightOf(item.parent);
+                }
+
+                if (colourOf(leftOf(sibling)) == Color.Black && colourOf(rightOf(sibling)) == Color.Black) {
+                    //Case 2: both sibling children are black
+                    setColour(sibling, Color.Red);
+                    item = item.parent;
+                } else {
+                    if (colourOf(rightOf(sibling)) == Color.Black) { //Case 3: far child is black
+                        setColour(leftOf(sibling), Color.Black);
+                        setColour(sibling, Color.Red);
+                        rightRotate(sibling);
+                        sibling = rightOf(item.parent);
+                    }
+
+                    //Case 4: far child is red
+                    setColour(sibling, colourOf(item.parent));
+                    setColour(item.parent, Color.Black);
+                    setColour(rightOf(sibling), Color.Black);
+                    leftRotate(item.parent);
+                    item = root;
+                }
+            } else {
+                //mirror image of code above
+                var sibling = leftOf(item.parent);
+                if (colourOf(sibling) == Color.Red) {
+                    setColour(sibling, Color.Black);
+                    setColour(item.parent, Color.Red);
+                    rightRotate(item.parent);
+                    sibling = leftOf(item.parent);
+                }
+
+                if (colourOf(rightOf(sibling)) == Color.Black && colourOf(leftOf(sibling)) == Color.Black) {
+                    setColour(sibling, Color.Red);
+                    item = item.parent;
+                } else {
+                    if (colourOf(leftOf(sibling)) == Color.Black) {
+                        setColour(rightOf(sibling), Color.Black);
+                        setColour(sibling, Color.Red);
+                        leftRotate(sibling);
+                        sibling = leftOf(item.parent);
+                    }
+
+                    setColour(sibling, colourOf(item.parent));
+                    setColour(item.parent, Color.Black);
+                    setColour(leftOf(sibling), Color.Black);
+                    rightRotate(item.parent);
+                    item = root;
+                }
+            }
+        }
+
+        setColour(item, Color.Black);
+    }
+
+    private static <TK, TV> Color colourOf(Node<TK, TV> node) {
+        return node == null ? Color.Black : node.colour;
+    }
+
+    private static <TK, TV> void setColour(Node<TK, TV> node, Color colour) {
+        if (node != null) {
+            node.colour = colour;
+        }
+    }
+
+    private static <TK, TV> Node<TK, TV> leftOf(Node<TK, TV> node) {
+        return node == null ? null : node.left;
+    }
+
+    private static <TK, TV> Node<TK, TV> rightOf(Node<TK, TV> node) {
+        return node == null ? null : node.right;
     }
 
     private void leftRotate(Node<TK, TV> X) {
@@ -101,25 +379,17 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
             Y.left.parent = X;
         }
 
-        if (Y != null) {
-            Y.parent = X.parent; //link X's parent to Y
-        }
-
+        Y.parent = X.parent; //link X's parent to Y
         if (X.parent == null) {
             root = Y;
-        }
-
-        if (X.parent != null && X == X.parent.left) {
+        } else if (X == X.parent.left) {
             X.parent.left = Y;
-        } else if (X.parent != null) {
+        } else {
             X.parent.right = Y;
         }
 
         Y.left = X; //put X on Y's left
-        if (X != null) {
-            X.parent = Y;
-        }
-
+        X.parent = Y;
     }
 
     private void rightRotate(Node<TK, TV> Y) {
@@ -130,27 +400,17 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
             X.right.parent = Y;
         }
 
-        if (X != null) {
-            X.parent = Y.parent;
-        }
-
+        X.parent = Y.parent;
         if (Y.parent == null) {
             root = X;
-        }
-
-        assert Y.parent != null;
-        if (Y == Y.parent.right) {
+        } else if (Y == Y.parent.right) {
             Y.parent.right = X;
-        }
-
-        if (Y == Y.parent.left) {
+        } else {
             Y.parent.left = X;
         }
 
         X.right = Y; //put Y on X's right
-        if (Y != null) {
-            Y.parent = X;
-        }
+        Y.parent = X;
     }
 
 
@@ -183,10 +443,11 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
                 Node<TK, TV> X;
 
                 X = item.parent.parent.left;
-                if (X != null && X.colour == Color.Black) //Case 1
+                if (X != null && X.colour == Color.Red) //Case 1
                 {
-                    X.colour = Color.Red;
-                    item.parent.parent.colour = Color.Black;
+                    item.parent.colour = Color.Black;
+                    X.colour = Color.Black;
+                    item.parent.parent.colour = Color.Red;
                     item = item.parent.parent;
                 } else //Case 2
                 {
@@ -201,9 +462,13 @@ public class BinaryTree<TK, TV> implements Iterable<Map.Entry<TK, TV>> {
                     leftRotate(item.parent.parent);
                 }
             }
-
-            root.colour = Color.Black; //re-colour the root black as necessary
         }
+
+        root.colour = Color.Black; //re-colour the root black as necessary
+    }
+
+    public int size() {
+        return size;
     }
 
     public TV get(TK key) {
@@ -1,12 +1,12 @@
 package persistence.base.tree;
 
 public class Node<TK, TV> {
-    public TK key;
+    public final TK key;
     public TV data;
     public Node<TK, TV> parent;
     public Node<TK, TV> left;
     public Node<TK, TV> right;
-    public int hash;
+    public final int hash;
     Color colour;
 
 
@@ -0,0 +1,112 @@
+package persistence.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class JfrMetrics implements MetricsSink {
+    @Name("persistence.VersionCreated")
+    @Label("Version Created")
+    @Category("Persistent Collections")
+    static class VersionCreated extends Event {
+        @Label("Version")
+        int version;
+    }
+
+    @Name("persistence.Reassembly")
+    @Label("Branch Reassembly")
+    @Category("Persistent Collections")
+    static class Reassembly extends Event {
+        @Label("Collection")
+        Class<?> collection;
+
+        @Label("Discarded Versions")
+        int discardedVersions;
+
+        @Label("Duration")
+        @Timespan
+        long nanos;
+    }
+
+    @Name("persistence.Recount")
+    @Label("Count Recalculation")
+    @Category("Persistent Collections")
+    static class Recount extends Event {
+        @Label("Collection")
+        Class<?> collection;
+
+        @Label("Duration")
+        @Timespan
+        long nanos;
+    }
+
+    @Name("persistence.HistoryLength")
+    @Label("Node History Length")
+    @Category("Persistent Collections")
+    static class HistoryLength extends Event {
+        @Label("Length")
+        int length;
+    }
+
+    @Name("persistence.Materialization")
+    @Label("Iterator Materialization")
+    @Category("Persistent Collections")
+    static class Materialization extends Event {
+        @Label("Collection")
+        Class<?> collection;
+
+        @Label("Items")
+        int items;
+    }
+
+    @Override
+    public void versionCreated(int version) {
+        var event = new VersionCreated();
+        if (event.isEnabled()) {
+            event.version = version;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void reassembled(Class<?> collection, int discardedVersions, long nanos) {
+        var event = new Reassembly();
+        if (event.isEnabled()) {
+            event.collection = collection;
+            event.discardedVersions = discardedVersions;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void recounted(Class<?> collection, long nanos) {
+        var event = new Recount();
+        if (event.isEnabled()) {
+            event.collection = collection;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void historyLength(int length) {
+        var event = new HistoryLength();
+        if (event.isEnabled()) {
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void materialized(Class<?> collection, int items) {
+        var event = new Materialization();
+        if (event.isEnabled()) {
+            event.collection = collection;
+            event.items = items;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package persistence.metrics;
+
+public final class Metrics {
+    private static final MetricsSink NOOP = new MetricsSink() {
+    };
+
+    private static volatile MetricsSink sink = NOOP;
+    private static volatile boolean enabled;
+
+    private Metrics() {
+    }
+
+    public static void install(MetricsSink newSink) {
+        sink = newSink == null ? NOOP : newSink;
+        enabled = newSink != null;
+    }
+
+    public static void reset() {
+        install(null);
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    public static MetricsSink sink() {
+        return sink;
+    }
+}
@@ -0,0 +1,105 @@
+package persistence.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricsRegistry implements MetricsSink {
+    public record TimerSnapshot(long count, long totalNanos, long maxNanos) {
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+    }
+
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private volatile long max;
+
+        private void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            if (nanos > max) {
+                synchronized (this) {
+                    max = Math.max(max, nanos);
+                }
+            }
+        }
+
+        private TimerSnapshot snapshot() {
+            return new TimerSnapshot(count.sum(), total.sum(), max);
+        }
+    }
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final AtomicLongArray historyLengths = new AtomicLongArray(32);
+
+    @Override
+    public void versionCreated(int version) {
+        increment("versions.created", 1);
+    }
+
+    @Override
+    public void reassembled(Class<?> collection, int discardedVersions, long nanos) {
+        increment(collection.getSimpleName() + ".reassembly.discarded", discardedVersions);
+        timer(collection.getSimpleName() + ".reassembly").record(nanos);
+    }
+
+    @Override
+    public void recounted(Class<?> collection, long nanos) {
+        timer(collection.getSimpleName() + ".recount").record(nanos);
+    }
+
+    @Override
+    public void historyLength(int length) {
+        historyLengths.incrementAndGet(32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1));
+    }
+
+    @Override
+    public void materialized(Class<?> collection, int items) {
+        increment(collection.getSimpleName() + ".materialized", 1);
+        increment(collection.getSimpleName() + ".materialized.items", items);
+    }
+
+    private void increment(String name, long delta) {
+        counters.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+    }
+
+    private Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+    public long counter(String name) {
+        var counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public TimerSnapshot timerSnapshot(String name) {
+        var timer = timers.get(name);
+        return timer == null ? new TimerSnapshot(0, 0, 0) : timer.snapshot();
+    }
+
+    public Map<String, Long> counters() {
+        var result = new TreeMap<String, Long>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return result;
+    }
+
+    public Map<String, TimerSnapshot> timers() {
+        var result = new TreeMap<String, TimerSnapshot>();
+        timers.forEach((name, timer) -> result.put(name, timer.snapshot()));
+        return result;
+    }
+
+    public long[] historyLengthHistogram() {
+        var result = new long[historyLengths.length()];
+        for (var i = 0; i < result.length; i++) {
+            result[i] = historyLengths.get(i);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package persistence.metrics;
+
+public interface MetricsSink {
+    default void versionCreated(int version) {
+    }
+
+    default void reassembled(Class<?> collection, int discardedVersions, long nanos) {
+    }
+
+    default void recounted(Class<?> collection, long nanos) {
+    }
+
+    default void historyLength(int length) {
+    }
+
+    default void materialized(Class<?> collection, int items) {
+    }
+}
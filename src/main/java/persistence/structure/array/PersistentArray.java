@@ -1,15 +1,32 @@
 package persistence.structure.array;
 
 import persistence.base.*;
-import persistence.structure.list.DoubleLinkedContent;
-import persistence.structure.list.DoubleLinkedData;
+import persistence.base.aggregate.IndexedAggregate;
+import persistence.base.aggregate.Monoid;
+import persistence.base.change.Change;
+import persistence.base.change.ConflictResolver;
+import persistence.base.change.Revision;
+import persistence.base.change.VersionChange;
+import persistence.base.codec.HistoryCodec;
+import persistence.base.codec.HistorySegment;
+import persistence.metrics.Metrics;
 import persistence.structure.list.PersistentLinkedList;
 
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class PersistentArray<T> extends BasePersistentCollection<Integer, T, List<PersistentNode<T>>> implements Iterable<T>, IUndoRedo<PersistentArray<T>> {
+    private volatile CollectionView<T> view;
+
     public PersistentArray() throws IndexOutOfBoundsException {
         nodes = new PersistentContent<>(new ArrayList<>(), new ModificationCount(modificationCount));
+        nodes.changes.recordCount(modificationCount, 0);
+        nodes.changes.recordHash(modificationCount, SequenceHash.EMPTY);
     }
 
     private PersistentArray(PersistentContent<List<PersistentNode<T>>> nodes, int count, int modificationCount) {
@@ -20,81 +37,171 @@ public class PersistentArray<T> extends BasePersistentCollection<Integer, T, Lis
         super(nodes, count, modificationCount, start);
     }
 
+    public PersistentArray(CollectionView<T> view, int count, int modificationCount) {
+        super(null, count, modificationCount, modificationCount);
+        this.view = view;
+    }
+
+    @Override
+    protected void materialize() {
+        if (view == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (view == null) {
+                return;
+            }
+
+            var content = new PersistentContent<List<PersistentNode<T>>>(new ArrayList<>(count),
+                    new ModificationCount(modificationCount));
+            var hash = SequenceHash.EMPTY;
+            for (var item : view) {
+                content.content.add(new PersistentNode<>(modificationCount, item));
+                hash = SequenceHash.append(hash, item);
+            }
+
+            content.changes.recordCount(modificationCount, count);
+            content.changes.recordHash(modificationCount, hash);
+            nodes = content;
+            view = null;
+            if (Metrics.enabled()) {
+                Metrics.sink().materialized(getClass(), count);
+            }
+        }
+    }
+
     @Override
     protected PersistentContent<List<PersistentNode<T>>> reassembleNodes() {
-        var newContent = new PersistentContent<List<PersistentNode<T>>>(new ArrayList<>(),
+        var newContent = new PersistentContent<List<PersistentNode<T>>>(new ArrayList<>(nodes.content.size()),
                 new ModificationCount(modificationCount));
-        var allModifications = new ArrayList<Map.Entry<Integer, Map.Entry<Integer, T>>>();
-        for (var i = 0; i < nodes.content.size(); i++) {
-            var node = nodes.content.get(i);
-            int finalI = i;
-            var neededModifications = node
-                    .modifications
-                    .toList()
-                    .stream()
-                    .filter(
-                            m -> m.getKey() <= modificationCount
-                    ).sorted(
-                            Comparator.comparingInt(Map.Entry::getKey)
-                    ).map(val -> Map.entry(finalI, val)).toList();
 
-            allModifications.addAll(neededModifications);
+        BitSet touched = null;
+        if (nodes.changes.covers(modificationCount)) {
+            touched = new BitSet();
+            for (var index : nodes.changes.touched(modificationCount, nodes.maxModification.value)) {
+                touched.set(index);
+            }
         }
 
-        allModifications.forEach(m -> {
-            if (m.getKey() >= newContent.content.size()) {
-                newContent.update(c ->
-                        c.add(new PersistentNode<>(m.getValue().getKey(), m.getValue().getValue())));
-            } else {
-                newContent.update(c -> c.get(m.getKey()).update(m.getValue().getKey(), m.getValue().getValue()));
+        for (var i = 0; i < nodes.content.size(); i++) {
+            var node = nodes.content.get(i);
+            if (touched != null && !touched.get(i)) {
+                // nothing was written here after the fork, so both branches can share the node until one writes
+                node.shared = true;
+                newContent.content.add(node);
+                continue;
             }
-        });
 
+            var newNode = node.truncated(modificationCount);
+            if (newNode != null) {
+                newContent.content.add(newNode);
+            }
+        }
+
+        newContent.changes = nodes.changes.truncated(modificationCount);
+        newContent.branchOf(nodes, modificationCount);
+        newContent.changes.recordCount(modificationCount, count);
         return newContent;
     }
 
-    private void addImpl(PersistentContent<List<PersistentNode<T>>> content, int modificationCount, T value) {
-        content.update(c -> c.add(new PersistentNode<>(modificationCount + 1, value)));
+    @Override
+    protected PersistentArray<T> forked(PersistentContent<List<PersistentNode<T>>> nodes) {
+        return new PersistentArray<>(nodes, count, modificationCount, startModificationCount);
+    }
+
+    private void addImpl(PersistentContent<List<PersistentNode<T>>> content, int modificationCount, int count, T value) {
+        content.update(c -> {
+            if (count < c.size()) {
+                writable(c, count).update(modificationCount + 1, value);
+            } else {
+                c.add(new PersistentNode<>(modificationCount + 1, value));
+            }
+            content.changes.touch(modificationCount + 1, count);
+        });
     }
 
-    private void insertImpl(PersistentContent<List<PersistentNode<T>>> content, int modificationCount, int index, T value) {
+    private void insertImpl(PersistentContent<List<PersistentNode<T>>> content, int modificationCount, int count, int index, T value) {
         content.update(c ->
         {
-            c.add(new PersistentNode<>(modificationCount + 1, c.get(c.size() - 1).value(modificationCount)));
-            c.get(index).update(modificationCount + 1, value);
-            for (var i = index + 1; i < c.size(); i++) {
-                c.get(i).update(modificationCount + 1, c.get(i - 1).value(modificationCount));
+            var last = c.get(count - 1).value(modificationCount);
+            if (count < c.size()) {
+                writable(c, count).update(modificationCount + 1, last);
+            } else {
+                c.add(new PersistentNode<>(modificationCount + 1, last));
+            }
+
+            for (var i = count - 1; i > index; i--) {
+                writable(c, i).update(modificationCount + 1, c.get(i - 1).value(modificationCount));
+            }
+            writable(c, index).update(modificationCount + 1, value);
+
+            for (var i = index; i <= count; i++) {
+                content.changes.touch(modificationCount + 1, i);
             }
         });
     }
 
     private void replaceImpl(PersistentContent<List<PersistentNode<T>>> content, int modificationCount, int index, T value) {
-        content.update(c -> c.get(index).update(modificationCount + 1, value));
+        content.update(c -> {
+            writable(c, index).update(modificationCount + 1, value);
+            content.changes.touch(modificationCount + 1, index);
+        });
     }
 
-    private void removeImpl(PersistentContent<List<PersistentNode<T>>> content, int modificationCount, int index) {
+    private void removeImpl(PersistentContent<List<PersistentNode<T>>> content, int modificationCount, int count, int index) {
         content.update(c -> {
-            for (var i = index; i < c.size() - 1; i++) {
-                c.get(i).update(modificationCount + 1, c.get(i + 1).value(modificationCount));
+            for (var i = index; i < count - 1; i++) {
+                writable(c, i).update(modificationCount + 1, c.get(i + 1).value(modificationCount));
+                content.changes.touch(modificationCount + 1, i);
             }
-            c.get(c.size() - 1).update(modificationCount + 1, null);
+            writable(c, count - 1).update(modificationCount + 1, null);
+            content.changes.touch(modificationCount + 1, count - 1);
         });
     }
 
     private void clear(PersistentContent<List<PersistentNode<T>>> content, int modificationCount) {
-        content.update(c -> c.forEach(n -> n.update(modificationCount + 1, null)));
+        content.update(c -> content.clearAt(modificationCount + 1));
+    }
+
+    private static <T> PersistentNode<T> writable(List<PersistentNode<T>> content, int index) {
+        var node = content.get(index);
+        if (node.shared) {
+            node = node.copy();
+            content.set(index, node);
+        }
+
+        return node;
+    }
+
+    private PersistentArray<T> commit(PersistentContent<List<PersistentNode<T>>> content, int newCount, Integer newHash) {
+        content.changes.recordCount(modificationCount + 1, newCount);
+        if (newHash != null) {
+            content.changes.recordHash(modificationCount + 1, newHash);
+        }
+        if (content.aggregates != null) {
+            annotate(content, newCount);
+        }
+        return new PersistentArray<>(content, newCount, modificationCount + 1);
+    }
+
+    private Integer knownHash() {
+        return nodes.changes.hasHash(modificationCount) ? nodes.changes.hash(modificationCount) : null;
     }
 
     public PersistentArray<T> add(T value) {
+        materialize();
+        var hash = knownHash();
+        var newHash = hash == null ? null : SequenceHash.append(hash, value);
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
-            addImpl(res, modificationCount, value);
+            var res = branch();
+            addImpl(res, modificationCount, count, value);
 
-            return new PersistentArray<>(res, count + 1, modificationCount + 1);
+            return commit(res, count + 1, newHash);
         }
 
-        addImpl(nodes, modificationCount, value);
-        return new PersistentArray<>(nodes, count + 1, modificationCount + 1);
+        addImpl(nodes, modificationCount, count, value);
+        return commit(nodes, count + 1, newHash);
     }
 
     public PersistentArray<T> insert(int index, T value) {
@@ -102,35 +209,39 @@ public class PersistentArray<T> extends BasePersistentCollection<Integer, T, Lis
             throw new IndexOutOfBoundsException(index);
         }
 
+        materialize();
         if (index == count) {
             return add(value);
         }
 
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
-            insertImpl(res, modificationCount, index, value);
+            var res = branch();
+            insertImpl(res, modificationCount, count, index, value);
 
-            return new PersistentArray<>(res, count + 1, modificationCount + 1);
+            return commit(res, count + 1, null);
         }
 
-        insertImpl(nodes, modificationCount, index, value);
-        return new PersistentArray<>(nodes, count + 1, modificationCount + 1);
+        insertImpl(nodes, modificationCount, count, index, value);
+        return commit(nodes, count + 1, null);
     }
 
     public PersistentArray<T> replace(Integer index, T value) {
-        if (index < 0 || index > count) {
+        if (index < 0 || index >= count) {
             throw new IndexOutOfBoundsException(index);
         }
 
+        materialize();
+        var hash = knownHash();
+        var newHash = hash == null ? null : SequenceHash.replace(hash, count, index, get(index), value);
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
+            var res = branch();
             replaceImpl(res, modificationCount, index, value);
 
-            return new PersistentArray<>(res, count, modificationCount + 1);
+            return commit(res, count, newHash);
         }
 
         replaceImpl(nodes, modificationCount, index, value);
-        return new PersistentArray<>(nodes, count, modificationCount + 1);
+        return commit(nodes, count, newHash);
     }
 
     public PersistentArray<T> remove(int index) {
@@ -138,102 +249,394 @@ public class PersistentArray<T> extends BasePersistentCollection<Integer, T, Lis
             throw new IndexOutOfBoundsException(index);
         }
 
+        materialize();
+        var hash = knownHash();
+        var newHash = hash == null || index != count - 1 ? null : SequenceHash.dropLast(hash, get(index));
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
-            removeImpl(res, modificationCount, index);
+            var res = branch();
+            removeImpl(res, modificationCount, count, index);
 
-            return new PersistentArray<>(res, count - 1, modificationCount + 1);
+            return commit(res, count - 1, newHash);
         }
 
-        removeImpl(nodes, modificationCount, index);
-        return new PersistentArray<>(nodes, count - 1, modificationCount + 1);
+        removeImpl(nodes, modificationCount, count, index);
+        return commit(nodes, count - 1, newHash);
     }
 
     public PersistentArray<T> clearAll() {
+        materialize();
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
+            var res = branch();
             clear(res, modificationCount);
 
-            return new PersistentArray<>(res, 0, modificationCount + 1);
+            return commit(res, 0, SequenceHash.EMPTY);
         }
 
         clear(nodes, modificationCount);
-        return new PersistentArray<>(nodes, 0, modificationCount + 1);
+        return commit(nodes, 0, SequenceHash.EMPTY);
     }
 
+    @SuppressWarnings("unchecked")
     public T get(Integer index) {
         if (index < 0 || index >= count) {
             throw new IndexOutOfBoundsException(index);
         }
-        return nodes.content.get(index).value(modificationCount);
+
+        var view = this.view;
+        if (view != null) {
+            return view.get(index);
+        }
+
+        var snapshot = snapshot(false);
+        return snapshot != null ? (T) snapshot[index] : nodes.content.get(index).value(modificationCount);
+    }
+
+    private Object[] snapshot(boolean eager) {
+        return snapshot(eager, () -> {
+            var values = new Object[count];
+            var items = liveIterator();
+            for (var i = 0; i < count; i++) {
+                values[i] = items.next();
+            }
+            return values;
+        }, values -> values.length);
+    }
+
+    public Stream<Revision<T>> history(int index) {
+        return history(index, 0, modificationCount);
+    }
+
+    public Stream<Revision<T>> history(int index, int fromVersion, int toVersion) {
+        materialize();
+        if (index < 0 || index >= nodes.content.size()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return history(nodes.content.get(index), fromVersion, toVersion);
+    }
+
+    public Flow.Publisher<List<VersionChange<Integer, T>>> changes() {
+        return changes(ForkJoinPool.commonPool(), 64);
+    }
+
+    public Flow.Publisher<List<VersionChange<Integer, T>>> changes(Executor executor, int maxBatch) {
+        return publisher(executor, maxBatch, this::diff);
+    }
+
+    public Stream<Change<Integer, T>> diff(int fromVersion, int toVersion) {
+        materialize();
+        checkVersion(fromVersion);
+        checkVersion(toVersion);
+
+        var low = Math.min(fromVersion, toVersion);
+        var high = Math.max(fromVersion, toVersion);
+        int fromCount, toCount;
+        IntStream indices;
+        if (nodes.changes.covers(low) && nodes.changes.covers(high) && !nodes.clearedBetween(low, high)) {
+            fromCount = nodes.changes.count(fromVersion);
+            toCount = nodes.changes.count(toVersion);
+            indices = Arrays.stream(nodes.changes.touched(low, high));
+        } else {
+            fromCount = countAt(fromVersion);
+            toCount = countAt(toVersion);
+            indices = IntStream.range(0, nodes.content.size());
+        }
+
+        return indices.mapToObj(i -> Change.between(i,
+                        i < fromCount, i < fromCount ? nodes.content.get(i).value(fromVersion) : null,
+                        i < toCount, i < toCount ? nodes.content.get(i).value(toVersion) : null))
+                .filter(Objects::nonNull);
+    }
+
+    /**
+     * Attaches the aggregate to the history this handle shares, so every handle of it sees the aggregate
+     * and later writes keep it up to date. Re-attaching a name with the same monoid is a no-op.
+     */
+    public <A> PersistentArray<T> withAggregate(String name, Monoid<? super T, A> monoid) {
+        materialize();
+        if (nodes.aggregates != null && nodes.aggregates.get(name) instanceof IndexedAggregate<?, ?> existing) {
+            if (existing.monoid() != monoid) {
+                throw new IllegalArgumentException("Such an aggregate already exists!");
+            }
+            return this;
+        }
+
+        var aggregates = new IndexedAggregate<T, A>(monoid);
+        var latest = nodes.maxModification.value;
+        aggregates.record(latest, aggregates.build(latest == modificationCount ? this
+                : new PersistentArray<>(nodes, countAt(latest), latest)));
+        attachAggregate(name, aggregates);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(String name, int from, int to) {
+        if (from < 0 || to > count || from > to) {
+            throw new IndexOutOfBoundsException(String.format("range [%d, %d) out of bounds for size %d", from, to, count));
+        }
+
+        materialize();
+        var aggregates = (IndexedAggregate<T, A>) attachedAggregate(name);
+        if (!aggregates.has(modificationCount)) {
+            aggregates.record(modificationCount, aggregates.build(this));
+        }
+
+        return aggregates.query(aggregates.root(modificationCount), from, to);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void annotate(PersistentContent<List<PersistentNode<T>>> content, int newCount) {
+        for (var aggregates : content.aggregates.values()) {
+            annotate((IndexedAggregate<T, ?>) aggregates, content, newCount);
+        }
+    }
+
+    private <A> void annotate(IndexedAggregate<T, A> aggregates, PersistentContent<List<PersistentNode<T>>> content, int newCount) {
+        if (!aggregates.has(modificationCount)) {
+            return;
+        }
+
+        if (content.lastClear(modificationCount + 1) == modificationCount + 1) {
+            aggregates.record(modificationCount + 1, aggregates.build(List.of()));
+            return;
+        }
+
+        var tree = aggregates.root(modificationCount);
+        for (var index : content.changes.touched(modificationCount + 1)) {
+            tree = index < newCount
+                    ? aggregates.set(tree, index, content.content.get(index).value(modificationCount + 1))
+                    : aggregates.clear(tree, index);
+        }
+        aggregates.record(modificationCount + 1, tree);
+    }
+
+    public int compactHistory(HistoryCodec<T> codec) {
+        materialize();
+        var sealed = 0;
+        for (var node : nodes.content) {
+            sealed += node.compact(codec);
+        }
+
+        return sealed;
+    }
+
+    public int spillHistory(int olderThanVersion, HistoryCodec<T> codec, HistorySegment segment) {
+        materialize();
+        checkVersion(olderThanVersion);
+        if (!codec.spillable()) {
+            throw new IllegalArgumentException("Such a codec cannot spill history!");
+        }
+
+        var spilled = 0;
+        for (var node : nodes.content) {
+            spilled += node.spill(olderThanVersion, codec, segment);
+        }
+
+        return spilled;
+    }
+
+    public static <T> PersistentArray<T> merge(PersistentArray<T> base, PersistentArray<T> left,
+                                               PersistentArray<T> right, ConflictResolver<Integer, T> resolver) {
+        base.materialize();
+        left.materialize();
+        right.materialize();
+
+        var newCount = left.count;
+        if (left.count == base.count) {
+            newCount = right.count;
+        } else if (right.count != base.count) {
+            newCount = Math.max(left.count, right.count);
+        }
+
+        var candidates = new TreeSet<Integer>();
+        changedSince(base, left, candidates);
+        changedSince(base, right, candidates);
+
+        var updates = new TreeMap<Integer, T>();
+        for (var index : candidates) {
+            if (index >= newCount) {
+                break;
+            }
+
+            var inBase = index < base.count;
+            var inLeft = index < left.count;
+            var inRight = index < right.count;
+            var baseValue = inBase ? base.get(index) : null;
+            var leftValue = inLeft ? left.get(index) : null;
+            var rightValue = inRight ? right.get(index) : null;
+            T merged;
+            if (!inLeft) {
+                merged = rightValue;
+            } else if (!inRight || (inBase && Objects.equals(rightValue, baseValue)) || Objects.equals(leftValue, rightValue)) {
+                merged = leftValue;
+            } else if (inBase && Objects.equals(leftValue, baseValue)) {
+                merged = rightValue;
+            } else {
+                merged = resolver.resolve(index, baseValue, leftValue, rightValue);
+            }
+
+            if (!inLeft || !Objects.equals(merged, leftValue)) {
+                updates.put(index, merged);
+            }
+        }
+
+        return left.applyAll(updates, newCount);
+    }
+
+    private static <T> void changedSince(PersistentArray<T> base, PersistentArray<T> branch, Set<Integer> result) {
+        if (base.modificationCount <= branch.modificationCount &&
+                branch.nodes.sharesHistory(base.nodes, base.modificationCount)) {
+            branch.diff(base.modificationCount, branch.modificationCount).forEach(change -> result.add(change.key()));
+            return;
+        }
+
+        for (var i = 0; i < Math.max(base.count, branch.count); i++) {
+            result.add(i);
+        }
+    }
+
+    private PersistentArray<T> applyAll(SortedMap<Integer, T> updates, int newCount) {
+        if (updates.isEmpty() && newCount == count) {
+            return this;
+        }
+
+        var content = nodes.maxModification.value > modificationCount ? branch() : nodes;
+        content.update(c -> {
+            for (var update : updates.entrySet()) {
+                if (update.getKey() < c.size()) {
+                    writable(c, update.getKey()).update(modificationCount + 1, update.getValue());
+                } else {
+                    c.add(new PersistentNode<>(modificationCount + 1, update.getValue()));
+                }
+                content.changes.touch(modificationCount + 1, update.getKey());
+            }
+
+            for (var i = newCount; i < count; i++) {
+                writable(c, i).update(modificationCount + 1, null);
+                content.changes.touch(modificationCount + 1, i);
+            }
+        });
+
+        return commit(content, newCount, null);
     }
 
+    @SuppressWarnings("unchecked")
     public Iterator<T> iterator() {
+        var view = this.view;
+        if (view != null) {
+            return view.iterator();
+        }
+
+        var snapshot = snapshot(true);
+        return snapshot != null ? Arrays.stream(snapshot).map(value -> (T) value).iterator() : liveIterator();
+    }
+
+    private Iterator<T> liveIterator() {
+        if (nodes.changes.covers(modificationCount)) {
+            return nodes.content
+                    .stream()
+                    .limit(count)
+                    .map(n -> n.value(modificationCount))
+                    .iterator();
+        }
+
+        var clearStep = nodes.lastClear(modificationCount);
         return nodes.content
                 .stream()
-                .filter(
-                        n -> n.modifications.toList()
-                                .stream()
-                                .anyMatch(m -> m.getKey() <= modificationCount))
+                .filter(n -> n.exists(modificationCount, clearStep))
                 .map(n -> n.value(modificationCount))
                 .iterator();
     }
 
+    @Override
+    public HistoryStats historyStats() {
+        var collector = new HistoryStats.Collector();
+        if (view == null) {
+            collector.list(nodes.content.size());
+            for (var node : nodes.content) {
+                collector.node(node);
+            }
+        }
+
+        return collector.build(count);
+    }
+
+    public PersistentArray<T> asOf(Instant instant) {
+        var version = versionAt(instant);
+        return version == modificationCount ? this : new PersistentArray<>(nodes, countAt(version), version);
+    }
+
     public PersistentArray<T> undo() {
         return modificationCount == startModificationCount ? this : new PersistentArray<>(nodes,
-                recalculateCount(modificationCount - 1), modificationCount - 1);
+                countAt(modificationCount - 1), modificationCount - 1);
     }
 
     public PersistentArray<T> redo() {
-        return modificationCount == nodes.maxModification.value ? this : new PersistentArray<>(nodes,
-                recalculateCount(modificationCount + 1), modificationCount + 1);
+        return view != null || modificationCount == nodes.maxModification.value ? this : new PersistentArray<>(nodes,
+                countAt(modificationCount + 1), modificationCount + 1);
     }
 
     @Override
     protected int recalculateCount(int modificationStep) {
+        var recorded = nodes.changes.count(modificationStep);
+        if (recorded >= 0) {
+            return recorded;
+        }
+
+        var clearStep = nodes.lastClear(modificationStep);
         return (int) nodes.content
                 .stream()
-                .filter(n -> n.modifications.toList()
-                        .stream()
-                        .anyMatch(m -> m.getKey() <= modificationStep)
-                ).count();
+                .filter(n -> n.exists(modificationStep, clearStep))
+                .count();
     }
 
-    public PersistentLinkedList<T> toPersistentLinkedList() {
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
 
-        var head = new PersistentNode<>(
-                modificationCount - 1,
-                new DoubleLinkedData<T>(null, null,
-                        new PersistentNode<>(-1, null)
-                )
-        );
+        if (!(o instanceof PersistentArray<?> other) || count != other.count) {
+            return false;
+        }
+
+        if (sameVersion(other)) {
+            return true;
+        }
 
-        var tail = new PersistentNode<>(
-                modificationCount - 1,
-                new DoubleLinkedData<T>(null, null,
-                        new PersistentNode<>(-1, null))
-        );
+        if (hashCode() != other.hashCode()) {
+            return false;
+        }
 
-        head.update(modificationCount, new DoubleLinkedData<>(tail, null,
-                head.value(modificationCount - 1).value, head.value(modificationCount - 1).id));
-        tail.update(modificationCount, new DoubleLinkedData<>(null, head,
-                tail.value(modificationCount - 1).value, tail.value(modificationCount - 1).id));
+        var otherItems = other.iterator();
+        for (var item : this) {
+            if (!Objects.equals(item, otherItems.next())) {
+                return false;
+            }
+        }
 
-        var content = new PersistentContent<>(new DoubleLinkedContent<>(head, tail), nodes.maxModification);
+        return true;
+    }
 
-        for (var t : nodes.content) {
-            var tailValue = content.content.pseudoTail.value(modificationCount);
-            var prevToTail = tailValue.previous;
-            var prevToTailValue = content.content.pseudoTail.value(modificationCount).previous.value(modificationCount);
-            var dnode = new DoubleLinkedData<>(content.content.pseudoTail, prevToTail, t);
-            var node = new PersistentNode<>(modificationCount - 1, dnode);
+    @Override
+    public int hashCode() {
+        if (view == null && nodes.changes.hasHash(modificationCount)) {
+            return nodes.changes.hash(modificationCount);
+        }
 
-            prevToTail.update(modificationCount,
-                    new DoubleLinkedData<>(node, prevToTailValue.previous, prevToTailValue.value, prevToTailValue.id));
+        var hash = SequenceHash.EMPTY;
+        for (var item : this) {
+            hash = SequenceHash.append(hash, item);
+        }
 
-            content.content.pseudoTail.update(modificationCount, new DoubleLinkedData<>(tailValue.next, node, tailValue.value, tailValue.id));
+        if (view == null) {
+            nodes.changes.recordHash(modificationCount, hash);
         }
 
-        return new PersistentLinkedList<>(content, count, modificationCount, modificationCount);
+        return hash;
+    }
+
+    public PersistentLinkedList<T> toPersistentLinkedList() {
+        return new PersistentLinkedList<>(new CollectionView<>(this, this::get), count, modificationCount);
     }
 }
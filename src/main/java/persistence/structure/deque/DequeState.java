@@ -0,0 +1,106 @@
+package persistence.structure.deque;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+public final class DequeState<T> implements Iterable<T> {
+    private static final DequeState<?> EMPTY = new DequeState<>(null);
+
+    private final FingerTree.Tree tree;
+
+    private DequeState(FingerTree.Tree tree) {
+        this.tree = tree;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> DequeState<T> empty() {
+        return (DequeState<T>) EMPTY;
+    }
+
+    public int size() {
+        return FingerTree.size(tree);
+    }
+
+    long retainedBytes(Set<Object> seen) {
+        return seen.add(this) ? FingerTree.retainedBytes(tree, seen) : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    T first() {
+        return tree == null ? null : (T) FingerTree.first(tree);
+    }
+
+    @SuppressWarnings("unchecked")
+    T last() {
+        return tree == null ? null : (T) FingerTree.last(tree);
+    }
+
+    DequeState<T> addFirst(T value) {
+        return new DequeState<>(FingerTree.pushFront(tree, value, 0));
+    }
+
+    DequeState<T> addLast(T value) {
+        return new DequeState<>(FingerTree.pushBack(tree, value, 0));
+    }
+
+    DequeState<T> removeFirst() {
+        return tree == null ? this : new DequeState<>(FingerTree.popFront(tree, 0));
+    }
+
+    DequeState<T> removeLast() {
+        return tree == null ? this : new DequeState<>(FingerTree.popBack(tree, 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        return (T) FingerTree.get(tree, index, 0);
+    }
+
+    DequeState<T> replace(int index, T value) {
+        return new DequeState<>(FingerTree.replace(tree, index, value, 0));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        var stack = new ArrayDeque<Object>();
+        var depths = new ArrayDeque<Integer>();
+        if (tree != null) {
+            FingerTree.pushElements(stack, depths, tree, 0);
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+
+                while (true) {
+                    var element = stack.pop();
+                    var depth = depths.pop();
+                    if (depth == 0) {
+                        return (T) element;
+                    }
+
+                    if (element instanceof FingerTree.Tree middle) {
+                        FingerTree.pushElements(stack, depths, middle, depth);
+                    } else {
+                        var items = ((FingerTree.Node) element).items();
+                        for (var i = items.length - 1; i >= 0; i--) {
+                            stack.push(items[i]);
+                            depths.push(depth - 1);
+                        }
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,306 @@
+package persistence.structure.deque;
+
+import persistence.base.HistoryStats;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Set;
+
+// a size-annotated 2-3 finger tree; elements at depth 0 are items, deeper ones are nodes of the level below
+final class FingerTree {
+    private FingerTree() {
+    }
+
+    record Node(int size, Object[] items) {
+    }
+
+    sealed interface Tree permits Single, Deep {
+        int size();
+    }
+
+    record Single(int size, Object item) implements Tree {
+    }
+
+    record Deep(int size, Object[] prefix, Tree middle, Object[] suffix) implements Tree {
+    }
+
+    static int size(Tree tree) {
+        return tree == null ? 0 : tree.size();
+    }
+
+    static Object first(Tree tree) {
+        return tree instanceof Deep deep ? deep.prefix[0] : ((Single) tree).item;
+    }
+
+    static Object last(Tree tree) {
+        return tree instanceof Deep deep ? deep.suffix[deep.suffix.length - 1] : ((Single) tree).item;
+    }
+
+    static Tree pushFront(Tree tree, Object element, int depth) {
+        var size = sizeOf(element, depth);
+        if (tree == null) {
+            return new Single(size, element);
+        }
+        if (tree instanceof Single single) {
+            return new Deep(single.size + size, new Object[]{element}, null, new Object[]{single.item});
+        }
+
+        var deep = (Deep) tree;
+        if (deep.prefix.length < 4) {
+            return new Deep(deep.size + size, prepend(element, deep.prefix), deep.middle, deep.suffix);
+        }
+
+        var prefix = deep.prefix;
+        var node = node(depth, prefix[1], prefix[2], prefix[3]);
+        return new Deep(deep.size + size, new Object[]{element, prefix[0]},
+                pushFront(deep.middle, node, depth + 1), deep.suffix);
+    }
+
+    static Tree pushBack(Tree tree, Object element, int depth) {
+        var size = sizeOf(element, depth);
+        if (tree == null) {
+            return new Single(size, element);
+        }
+        if (tree instanceof Single single) {
+            return new Deep(single.size + size, new Object[]{single.item}, null, new Object[]{element});
+        }
+
+        var deep = (Deep) tree;
+        if (deep.suffix.length < 4) {
+            return new Deep(deep.size + size, deep.prefix, deep.middle, append(deep.suffix, element));
+        }
+
+        var suffix = deep.suffix;
+        var node = node(depth, suffix[0], suffix[1], suffix[2]);
+        return new Deep(deep.size + size, deep.prefix,
+                pushBack(deep.middle, node, depth + 1), new Object[]{suffix[3], element});
+    }
+
+    static Tree popFront(Tree tree, int depth) {
+        if (tree instanceof Single) {
+            return null;
+        }
+
+        var deep = (Deep) tree;
+        var size = deep.size - sizeOf(deep.prefix[0], depth);
+        if (deep.prefix.length > 1) {
+            return new Deep(size, Arrays.copyOfRange(deep.prefix, 1, deep.prefix.length), deep.middle, deep.suffix);
+        }
+        if (deep.middle == null) {
+            return fromDigit(deep.suffix, depth);
+        }
+
+        var node = (Node) first(deep.middle);
+        return new Deep(size, node.items, popFront(deep.middle, depth + 1), deep.suffix);
+    }
+
+    static Tree popBack(Tree tree, int depth) {
+        if (tree instanceof Single) {
+            return null;
+        }
+
+        var deep = (Deep) tree;
+        var size = deep.size - sizeOf(deep.suffix[deep.suffix.length - 1], depth);
+        if (deep.suffix.length > 1) {
+            return new Deep(size, deep.prefix, deep.middle, Arrays.copyOf(deep.suffix, deep.suffix.length - 1));
+        }
+        if (deep.middle == null) {
+            return fromDigit(deep.prefix, depth);
+        }
+
+        var node = (Node) last(deep.middle);
+        return new Deep(size, deep.prefix, popBack(deep.middle, depth + 1), node.items);
+    }
+
+    static Object get(Tree tree, int index, int depth) {
+        if (tree instanceof Single single) {
+            return lookup(single.item, index, depth);
+        }
+
+        var deep = (Deep) tree;
+        for (var element : deep.prefix) {
+            var size = sizeOf(element, depth);
+            if (index < size) {
+                return lookup(element, index, depth);
+            }
+            index -= size;
+        }
+
+        var middle = size(deep.middle);
+        if (index < middle) {
+            return get(deep.middle, index, depth + 1);
+        }
+        index -= middle;
+
+        for (var element : deep.suffix) {
+            var size = sizeOf(element, depth);
+            if (index < size) {
+                return lookup(element, index, depth);
+            }
+            index -= size;
+        }
+
+        throw new IndexOutOfBoundsException(index);
+    }
+
+    static Tree replace(Tree tree, int index, Object value, int depth) {
+        if (tree instanceof Single single) {
+            return new Single(single.size, replaced(single.item, index, value, depth));
+        }
+
+        var deep = (Deep) tree;
+        var prefixSize = digitSize(deep.prefix, depth);
+        if (index < prefixSize) {
+            return new Deep(deep.size, replaced(deep.prefix, index, value, depth), deep.middle, deep.suffix);
+        }
+
+        var middle = size(deep.middle);
+        if (index < prefixSize + middle) {
+            return new Deep(deep.size, deep.prefix, replace(deep.middle, index - prefixSize, value, depth + 1),
+                    deep.suffix);
+        }
+
+        return new Deep(deep.size, deep.prefix, deep.middle,
+                replaced(deep.suffix, index - prefixSize - middle, value, depth));
+    }
+
+    static long retainedBytes(Tree tree, Set<Object> seen) {
+        var bytes = 0L;
+        var pending = new ArrayDeque<Object>();
+        if (tree != null) {
+            pending.push(tree);
+        }
+        while (!pending.isEmpty()) {
+            var next = pending.pop();
+            if (!seen.add(next)) {
+                continue;
+            }
+
+            if (next instanceof Deep deep) {
+                bytes += HistoryStats.objectBytes(3, 4) + digitBytes(deep.prefix, pending) + digitBytes(deep.suffix, pending);
+                if (deep.middle != null) {
+                    pending.push(deep.middle);
+                }
+            } else if (next instanceof Single single) {
+                bytes += HistoryStats.objectBytes(1, 4);
+                if (single.item instanceof Node) {
+                    pending.push(single.item);
+                }
+            } else if (next instanceof Node node) {
+                bytes += HistoryStats.objectBytes(1, 4) + digitBytes(node.items, pending);
+            }
+        }
+
+        return bytes;
+    }
+
+    // pushes the tree's elements so that the stack yields them in order, paired with their depth
+    static void pushElements(ArrayDeque<Object> stack, ArrayDeque<Integer> depths, Tree tree, int depth) {
+        if (tree instanceof Single single) {
+            stack.push(single.item);
+            depths.push(depth);
+            return;
+        }
+
+        var deep = (Deep) tree;
+        for (var i = deep.suffix.length - 1; i >= 0; i--) {
+            stack.push(deep.suffix[i]);
+            depths.push(depth);
+        }
+        if (deep.middle != null) {
+            stack.push(deep.middle);
+            depths.push(depth + 1);
+        }
+        for (var i = deep.prefix.length - 1; i >= 0; i--) {
+            stack.push(deep.prefix[i]);
+            depths.push(depth);
+        }
+    }
+
+    private static long digitBytes(Object[] digit, ArrayDeque<Object> pending) {
+        for (var element : digit) {
+            if (element instanceof Node) {
+                pending.push(element);
+            }
+        }
+
+        return HistoryStats.objectBytes(digit.length, 4);
+    }
+
+    private static int sizeOf(Object element, int depth) {
+        return depth == 0 ? 1 : ((Node) element).size;
+    }
+
+    private static int digitSize(Object[] digit, int depth) {
+        var size = 0;
+        for (var element : digit) {
+            size += sizeOf(element, depth);
+        }
+
+        return size;
+    }
+
+    private static Node node(int depth, Object a, Object b, Object c) {
+        return new Node(sizeOf(a, depth) + sizeOf(b, depth) + sizeOf(c, depth), new Object[]{a, b, c});
+    }
+
+    private static Tree fromDigit(Object[] digit, int depth) {
+        Tree tree = null;
+        for (var element : digit) {
+            tree = pushBack(tree, element, depth);
+        }
+
+        return tree;
+    }
+
+    private static Object lookup(Object element, int index, int depth) {
+        for (; depth > 0; depth--) {
+            for (var child : ((Node) element).items) {
+                var size = sizeOf(child, depth - 1);
+                if (index < size) {
+                    element = child;
+                    break;
+                }
+                index -= size;
+            }
+        }
+
+        return element;
+    }
+
+    private static Object replaced(Object element, int index, Object value, int depth) {
+        if (depth == 0) {
+            return value;
+        }
+
+        var node = (Node) element;
+        return new Node(node.size, replaced(node.items, index, value, depth - 1));
+    }
+
+    private static Object[] replaced(Object[] elements, int index, Object value, int depth) {
+        var copy = elements.clone();
+        for (var i = 0; i < copy.length; i++) {
+            var size = sizeOf(copy[i], depth);
+            if (index < size) {
+                copy[i] = replaced(copy[i], index, value, depth);
+                return copy;
+            }
+            index -= size;
+        }
+
+        throw new IndexOutOfBoundsException(index);
+    }
+
+    private static Object[] prepend(Object element, Object[] digit) {
+        var result = new Object[digit.length + 1];
+        result[0] = element;
+        System.arraycopy(digit, 0, result, 1, digit.length);
+        return result;
+    }
+
+    private static Object[] append(Object[] digit, Object element) {
+        var result = Arrays.copyOf(digit, digit.length + 1);
+        result[digit.length] = element;
+        return result;
+    }
+}
@@ -0,0 +1,176 @@
+package persistence.structure.deque;
+
+import persistence.base.BasePersistentCollection;
+import persistence.base.HistoryStats;
+import persistence.base.IUndoRedo;
+import persistence.base.ModificationCount;
+import persistence.base.PersistentContent;
+import persistence.base.SequenceHash;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+public class PersistentDeque<T> extends BasePersistentCollection<Integer, T, List<DequeState<T>>> implements Iterable<T>, IUndoRedo<PersistentDeque<T>> {
+    public PersistentDeque() {
+        var states = new ArrayList<DequeState<T>>();
+        states.add(DequeState.empty());
+        nodes = new PersistentContent<>(states, new ModificationCount(modificationCount));
+    }
+
+    private PersistentDeque(PersistentContent<List<DequeState<T>>> nodes, int count, int modificationCount) {
+        super(nodes, count, modificationCount);
+    }
+
+    @Override
+    protected PersistentContent<List<DequeState<T>>> reassembleNodes() {
+        var newContent = new PersistentContent<List<DequeState<T>>>(
+                new ArrayList<>(nodes.content.subList(0, modificationCount + 1)),
+                new ModificationCount(modificationCount));
+        newContent.branchOf(nodes, modificationCount);
+        return newContent;
+    }
+
+    @Override
+    protected PersistentDeque<T> forked(PersistentContent<List<DequeState<T>>> nodes) {
+        return new PersistentDeque<>(nodes, count, modificationCount);
+    }
+
+    @Override
+    protected int recalculateCount(int modificationStep) {
+        return nodes.content.get(modificationStep).size();
+    }
+
+    private DequeState<T> state() {
+        return nodes.content.get(modificationCount);
+    }
+
+    private PersistentDeque<T> update(UnaryOperator<DequeState<T>> updater) {
+        var next = updater.apply(state());
+        var content = nodes.maxModification.value > modificationCount ? branch() : nodes;
+        content.update(states -> states.add(next));
+        return new PersistentDeque<>(content, next.size(), modificationCount + 1);
+    }
+
+    public PersistentDeque<T> addFirst(T value) {
+        return update(s -> s.addFirst(value));
+    }
+
+    public PersistentDeque<T> addLast(T value) {
+        return update(s -> s.addLast(value));
+    }
+
+    public PersistentDeque<T> removeFirst() {
+        return count == 0 ? this : update(DequeState::removeFirst);
+    }
+
+    public PersistentDeque<T> removeLast() {
+        return count == 0 ? this : update(DequeState::removeLast);
+    }
+
+    public T peekFirst() {
+        return state().first();
+    }
+
+    public T peekLast() {
+        return state().last();
+    }
+
+    @Override
+    public T get(Integer index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return state().get(index);
+    }
+
+    @Override
+    public PersistentDeque<T> replace(Integer index, T value) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return update(s -> s.replace(index, value));
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return state().iterator();
+    }
+
+    @Override
+    public HistoryStats historyStats() {
+        var collector = new HistoryStats.Collector().list(nodes.content.size()).entries(nodes.content.size());
+        var seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var state : nodes.content) {
+            collector.bytes(state.retainedBytes(seen));
+        }
+
+        return collector.build(count);
+    }
+
+    public PersistentDeque<T> asOf(Instant instant) {
+        var version = versionAt(instant);
+        return version == modificationCount ? this : new PersistentDeque<>(nodes, countAt(version), version);
+    }
+
+    @Override
+    public PersistentDeque<T> undo() {
+        return modificationCount == startModificationCount ? this : new PersistentDeque<>(nodes,
+                countAt(modificationCount - 1), modificationCount - 1);
+    }
+
+    @Override
+    public PersistentDeque<T> redo() {
+        return modificationCount == nodes.maxModification.value ? this : new PersistentDeque<>(nodes,
+                countAt(modificationCount + 1), modificationCount + 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof PersistentDeque<?> other) || count != other.count) {
+            return false;
+        }
+
+        if (sameVersion(other)) {
+            return true;
+        }
+
+        var otherItems = other.iterator();
+        for (var item : this) {
+            if (!Objects.equals(item, otherItems.next())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        var hash = SequenceHash.EMPTY;
+        for (var item : this) {
+            hash = SequenceHash.append(hash, item);
+        }
+
+        return hash;
+    }
+}
@@ -1,13 +1,25 @@
 package persistence.structure.list;
 
 import persistence.base.*;
+import persistence.base.change.Change;
+import persistence.base.change.VersionChange;
+import persistence.base.tree.BinaryTree;
+import persistence.metrics.Metrics;
 import persistence.structure.array.PersistentArray;
 
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T, DoubleLinkedContent<T>> implements IUndoRedo<PersistentLinkedList<T>> {
+    private static final long LINK_BYTES = HistoryStats.objectBytes(4, 0) + HistoryStats.objectBytes(0, 16);
+    private static final int REPLACE = 0, ADD_FIRST = 1, ADD_LAST = 2, REMOVE_FIRST = 3, REMOVE_LAST = 4, CLEAR = 5;
+
+    private volatile CollectionView<T> view;
 
     public PersistentLinkedList() {
         var head = new PersistentNode<>(modificationCount - 1, new DoubleLinkedData<T>(null, null, new PersistentNode<>(-1, null)));
@@ -16,7 +28,8 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
         tail.update(modificationCount, new DoubleLinkedData<>(null, head, tail.value(modificationCount - 1).value, tail.value(modificationCount - 1).id));
 
         nodes = new PersistentContent<>(new DoubleLinkedContent<>(head, tail), new ModificationCount(modificationCount));
-
+        nodes.changes.recordCount(modificationCount, 0);
+        nodes.changes.recordHash(modificationCount, SequenceHash.EMPTY);
     }
 
     private PersistentLinkedList(PersistentContent<DoubleLinkedContent<T>> nodes,
@@ -31,92 +44,157 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
         super(nodes, count, modificationCount, start);
     }
 
+    public PersistentLinkedList(CollectionView<T> view, int count, int modificationCount) {
+        super(null, count, modificationCount, modificationCount);
+        this.view = view;
+    }
+
+    @Override
+    protected void materialize() {
+        if (view == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (view == null) {
+                return;
+            }
+
+            var hash = SequenceHash.EMPTY;
+            var chain = new ArrayList<PersistentNode<DoubleLinkedData<T>>>(count + 2);
+            chain.add(new PersistentNode<>(modificationCount - 1, new DoubleLinkedData<>(null, null, new PersistentNode<T>(-1, null))));
+            for (var item : view) {
+                chain.add(new PersistentNode<>(modificationCount, new DoubleLinkedData<>(null, null, new PersistentNode<>(modificationCount, item))));
+                hash = SequenceHash.append(hash, item);
+            }
+            chain.add(new PersistentNode<>(modificationCount - 1, new DoubleLinkedData<>(null, null, new PersistentNode<T>(-1, null))));
+
+            for (var i = 0; i < chain.size(); i++) {
+                var data = chain.get(i).value(modificationCount);
+                chain.get(i).update(modificationCount, new DoubleLinkedData<>(
+                        i + 1 < chain.size() ? chain.get(i + 1) : null,
+                        i > 0 ? chain.get(i - 1) : null,
+                        data.value, data.id));
+            }
+
+            var content = new PersistentContent<>(new DoubleLinkedContent<>(chain.get(0), chain.get(chain.size() - 1)),
+                    new ModificationCount(modificationCount));
+            content.changes.recordCount(modificationCount, count);
+            content.changes.recordHash(modificationCount, hash);
+            nodes = content;
+            view = null;
+            if (Metrics.enabled()) {
+                Metrics.sink().materialized(getClass(), count);
+            }
+        }
+    }
+
     @Override
     protected int recalculateCount(int modificationStep) {
-        return toList(modificationStep).size();
+        var recorded = nodes.changes.count(modificationStep);
+        if (recorded >= 0) {
+            return recorded;
+        }
+
+        var checkpoints = nodes.checkpoints;
+        var from = checkpoints == null ? -1 : checkpoints.floor(modificationStep);
+        if (from < 0 || !checkpoints.journaled(modificationStep)) {
+            return toList(modificationStep).size();
+        }
+
+        var result = checkpoints.snapshot(from).length;
+        for (var version = from + 1; version <= modificationStep; version++) {
+            switch (checkpoints.operation(version)) {
+                case ADD_FIRST, ADD_LAST -> result++;
+                case REMOVE_FIRST, REMOVE_LAST -> result--;
+                case CLEAR -> result = 0;
+            }
+        }
+
+        return result;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     protected PersistentContent<DoubleLinkedContent<T>> reassembleNodes() {
-        var allModifications = new ArrayList<Map.Entry<UUID, Map.Entry<Integer, DoubleLinkedData<T>>>>();
-        var nodeModificationCount = new LinkedHashMap<UUID, Integer>();
-        var current = nodes.content.pseudoHead;
-
-        for (var i = count; i != -2; i--) {
-            var neededModifications = current.modifications.toList()
-                    .stream()
-                    .filter(m -> m.getKey() <= modificationCount)
-                    .map(m -> Map.entry(m.getValue().id, m))
-                    .sorted(Map.Entry.comparingByKey()).toList();
-
-            allModifications.addAll(neededModifications);
-            nodeModificationCount.put(current.value(modificationCount).id, neededModifications.size());
-            current = current.value(modificationCount).next;
+        var copies = new IdentityHashMap<PersistentNode<DoubleLinkedData<T>>, PersistentNode<DoubleLinkedData<T>>>();
+        var pending = new ArrayDeque<PersistentNode<DoubleLinkedData<T>>>();
+        pending.add(nodes.content.pseudoHead);
+        pending.add(nodes.content.pseudoTail);
+        while (!pending.isEmpty()) {
+            var node = pending.poll();
+            if (copies.containsKey(node)) {
+                continue;
+            }
+
+            var copy = node.truncated(modificationCount);
+            copies.put(node, copy);
+            if (copy == null) {
+                continue;
+            }
+
+            for (var m : copy.modifications) {
+                if (m.getValue().next != null) {
+                    pending.add(m.getValue().next);
+                }
+                if (m.getValue().previous != null) {
+                    pending.add(m.getValue().previous);
+                }
+            }
         }
-        var orderedModifications = new ArrayList<>(allModifications.stream()
-                .collect(Collectors.groupingBy(m -> m.getValue().getKey()))
-                .values()
-                .stream()
-                .flatMap(entries -> entries
-                        .stream()
-                        .sorted((Comparator.comparing(o -> nodeModificationCount.get(o.getKey())))))
-                .toList())
-                .stream()
-                .sorted(Comparator.comparing(o -> o.getValue().getKey()))
-                .collect(Collectors.toList());
-
-        var newNodes = new LinkedHashMap<UUID, PersistentNode<DoubleLinkedData<T>>>();
-        newNodes.put(orderedModifications.get(0).getKey(),
-                new PersistentNode<>(-1,
-                        new DoubleLinkedData<>(null,
-                                null,
-                                new PersistentNode<>(-1, null),
-                                orderedModifications.get(0).getKey())));
-
-
-        orderedModifications.remove(0);
-
-        newNodes.put(orderedModifications.get(0).getKey(),
-                new PersistentNode<>(-1,
-                        new DoubleLinkedData<>(null,
-                                null,
-                                new PersistentNode<>(-1, null),
-                                orderedModifications.get(0).getKey())
-                )
-        );
 
-        orderedModifications.remove(0);
-
-        for (var entry : orderedModifications) {
-            var nodeKey = entry.getKey();
-            var step = entry.getValue().getKey();
-            var nodeValue = entry.getValue().getValue();
-            if (newNodes.containsKey(nodeKey)) {
-                var node = newNodes.get(nodeKey);
-                node.update(step,
-                        new DoubleLinkedData<>(nodeValue.next == null ? null :
-                                newNodes.get(nodeValue.next.value(step).id),
-                                nodeValue.previous == null ? null : newNodes.get(nodeValue.previous.value(step).id),
-                                node.value(step - 1).value.update(step, nodeValue.value.value(step)), nodeKey));
-            } else {
-                var newNode = new PersistentNode<>(step,
-                        new DoubleLinkedData<>(newNodes.get(nodeValue.next.value(step).id),
-                                newNodes.get(nodeValue.previous.value(step).id),
-                                new PersistentNode<>(step, nodeValue.value.value(step)),
-                                nodeKey)
-                );
-                newNodes.put(nodeKey, newNode);
+        var values = new IdentityHashMap<PersistentNode<T>, PersistentNode<T>>();
+        for (var copy : copies.values()) {
+            if (copy == null) {
+                continue;
+            }
+
+            for (var m : copy.modifications.toList()) {
+                var data = m.getValue();
+                copy.update(m.getKey(), new DoubleLinkedData<>(
+                        data.next == null ? null : copies.get(data.next),
+                        data.previous == null ? null : copies.get(data.previous),
+                        values.computeIfAbsent(data.value, v -> v.truncated(modificationCount)),
+                        data.id));
             }
         }
 
-        var newHead = newNodes.get(nodes.content.pseudoHead.value(modificationCount).id);
-        var newTail = newNodes.get(nodes.content.pseudoTail.value(modificationCount).id);
-        return new PersistentContent<>(new DoubleLinkedContent<>(newHead, newTail),
+        var newContent = new PersistentContent<>(
+                new DoubleLinkedContent<>(copies.get(nodes.content.pseudoHead), copies.get(nodes.content.pseudoTail)),
                 new ModificationCount(modificationCount));
+        newContent.changes = nodes.changes.remapped(modificationCount, copies::get);
+        newContent.branchOf(nodes, modificationCount);
+        if (nodes.checkpoints != null) {
+            newContent.checkpoints = nodes.checkpoints.remapped(modificationCount,
+                    value -> values.computeIfAbsent((PersistentNode<T>) value, v -> v.truncated(modificationCount)));
+        }
+        newContent.changes.recordCount(modificationCount, count);
+        return newContent;
+    }
 
+    @Override
+    protected PersistentLinkedList<T> forked(PersistentContent<DoubleLinkedContent<T>> nodes) {
+        return new PersistentLinkedList<>(nodes, count, modificationCount, startModificationCount);
     }
 
+    @SuppressWarnings("unchecked")
     public T get(Integer num) {
+        var view = this.view;
+        if (view != null) {
+            return num < count ? view.get(num) : null;
+        }
+
+        var snapshot = num < count ? snapshot(false) : null;
+        if (snapshot != null) {
+            return (T) snapshot[num];
+        }
+
+        var checkpoints = nodes.checkpoints;
+        var from = checkpoints == null ? -1 : checkpoints.floor(modificationCount);
+        if (from >= 0 && num < count && modificationCount - from < num && checkpoints.journaled(modificationCount)) {
+            return elementAt(checkpoints, from, num).value(modificationCount);
+        }
+
         var node = findNode(num);
         return node == nodes.content.pseudoTail ? null :
                 node.value(modificationCount).value == null ?
@@ -125,6 +203,7 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
     }
 
     public PersistentLinkedList<T> clear() {
+        materialize();
         if (count == 0) {
             return this;
         }
@@ -132,24 +211,42 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
         Function<PersistentContent<DoubleLinkedContent<T>>, PersistentLinkedList<T>> updContent = x -> {
             x.update(m ->
             {
+                var current = m.pseudoHead.value(modificationCount).next;
+                for (var i = count; i != 0; i--) {
+                    x.changes.touchKey(modificationCount + 1, current);
+                    current = current.value(modificationCount).next;
+                }
+                x.changes.touchKey(modificationCount + 1, m.pseudoHead);
+                x.changes.touchKey(modificationCount + 1, m.pseudoTail);
+                journal(x, CLEAR, null);
                 m.pseudoHead.update(modificationCount + 1,
                         new DoubleLinkedData<>(m.pseudoTail, null, m.pseudoHead.value(modificationCount).value, m.pseudoHead.value(modificationCount).id));
                 m.pseudoTail.update(modificationCount + 1,
                         new DoubleLinkedData<>(null, m.pseudoHead, m.pseudoTail.value(modificationCount).value, m.pseudoTail.value(modificationCount).id));
             });
 
-            return new PersistentLinkedList<>(x, 0, modificationCount + 1);
+            return commit(x, 0);
         };
 
         if (nodes.maxModification.value > modificationCount) {
-            var newContent = reassembleNodes();
-            return updContent.apply(newContent);
+            var newContent = branch();
+            return withHash(updContent.apply(newContent), SequenceHash.EMPTY);
         }
 
-        return updContent.apply(nodes);
+        return withHash(updContent.apply(nodes), SequenceHash.EMPTY);
     }
 
     public boolean contains(T item) {
+        var view = this.view;
+        if (view != null) {
+            for (var value : view) {
+                if (value.equals(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         var current = nodes.content.pseudoHead.value(modificationCount).next;
         for (var i = count; i != 0; i--) {
             if (current.value(modificationCount).value.value(modificationCount).equals(item)) {
@@ -161,57 +258,74 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
     }
 
     public PersistentLinkedList<T> replace(Integer num, T value) {
+        materialize();
         if (num > count) return this;
+        var hash = knownHash();
+        var newHash = hash == null || num == count ? null : SequenceHash.replace(hash, count, num, get(num), value);
         if (nodes.maxModification.value > modificationCount) {
-            var newContent = reassembleNodes();
-            return replace(newContent, num, value);
+            var newContent = branch();
+            return withHash(replace(newContent, num, value), newHash);
         } else {
-            return replace(nodes, num, value);
+            return withHash(replace(nodes, num, value), newHash);
         }
     }
 
     public PersistentLinkedList<T> addLast(T value) {
+        materialize();
+        var hash = knownHash();
+        var newHash = hash == null ? null : SequenceHash.append(hash, value);
         if (nodes.maxModification.value > modificationCount) {
-            var newContent = reassembleNodes();
-            return addLast(newContent, value);
+            var newContent = branch();
+            return withHash(addLast(newContent, value), newHash);
         }
 
-        return addLast(nodes, value);
+        return withHash(addLast(nodes, value), newHash);
     }
 
     public PersistentLinkedList<T> addFirst(T value) {
+        materialize();
+        var hash = knownHash();
+        var newHash = hash == null ? null : SequenceHash.prepend(hash, count, value);
         if (nodes.maxModification.value > modificationCount) {
-            var newContent = reassembleNodes();
-            return addFirst(newContent, value);
+            var newContent = branch();
+            return withHash(addFirst(newContent, value), newHash);
         }
 
-        return addFirst(nodes, value);
+        return withHash(addFirst(nodes, value), newHash);
     }
 
     public PersistentLinkedList<T> removeLast() {
+        materialize();
         if (count == 0) {
             return this;
         }
 
+        var hash = knownHash();
+        var newHash = hash == null ? null : SequenceHash.dropLast(hash, get(count - 1));
+
         if (nodes.maxModification.value > modificationCount) {
-            var newContent = reassembleNodes();
-            return removeLast(newContent);
+            var newContent = branch();
+            return withHash(removeLast(newContent), newHash);
         }
 
-        return removeLast(nodes);
+        return withHash(removeLast(nodes), newHash);
     }
 
     public PersistentLinkedList<T> removeFirst() {
+        materialize();
         if (count == 0) {
             return this;
         }
 
+        var hash = knownHash();
+        var newHash = hash == null ? null : SequenceHash.dropFirst(hash, count, get(0));
+
         if (nodes.maxModification.value > modificationCount) {
-            var newContent = reassembleNodes();
-            return removeFirst(newContent);
+            var newContent = branch();
+            return withHash(removeFirst(newContent), newHash);
         }
 
-        return removeFirst(nodes);
+        return withHash(removeFirst(nodes), newHash);
     }
 
     private PersistentLinkedList<T> addFirst(PersistentContent<DoubleLinkedContent<T>> content, T value) {
@@ -233,14 +347,20 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
                     );
                     m.pseudoHead.update(modificationCount + 1,
                             new DoubleLinkedData<>(newHead, null, oldHead.value, oldHead.id));
+                    touch(content, newHead, oldNextToHead, m.pseudoHead);
+                    journal(content, ADD_FIRST, newHead.value(modificationCount + 1).value);
                 }
         );
 
-        return new PersistentLinkedList<>(content, count + 1, modificationCount + 1);
+        return commit(content, count + 1);
     }
 
     private PersistentNode<DoubleLinkedData<T>> findNode(int num) {
-        var current = nodes.content.pseudoHead.value(modificationCount).next;
+        return findNode(nodes, num);
+    }
+
+    private PersistentNode<DoubleLinkedData<T>> findNode(PersistentContent<DoubleLinkedContent<T>> content, int num) {
+        var current = content.content.pseudoHead.value(modificationCount).next;
         for (var i = num; i != 0; i--) {
             current = current.value(modificationCount).next;
         }
@@ -250,18 +370,21 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
 
 
     private PersistentLinkedList<T> replace(PersistentContent<DoubleLinkedContent<T>> content, int num, T value) {
-        var node = findNode(num);
+        var node = findNode(content, num);
         var nodeValue = node.value(modificationCount);
-        content.update(m ->
-                node.update(modificationCount + 1,
-                        new DoubleLinkedData<>(nodeValue.next,
-                                nodeValue.previous,
-                                nodeValue.value.update(modificationCount + 1, value),
-                                nodeValue.id)
-                )
+        content.update(m -> {
+                    node.update(modificationCount + 1,
+                            new DoubleLinkedData<>(nodeValue.next,
+                                    nodeValue.previous,
+                                    nodeValue.value.update(modificationCount + 1, value),
+                                    nodeValue.id)
+                    );
+                    touch(content, node);
+                    journal(content, REPLACE, null);
+                }
         );
 
-        return new PersistentLinkedList<>(content, count, modificationCount + 1);
+        return commit(content, count);
     }
 
     private PersistentLinkedList<T> addLast(PersistentContent<DoubleLinkedContent<T>> content, T value) {
@@ -284,10 +407,12 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
                     m.pseudoTail.update(modificationCount + 1,
                             new DoubleLinkedData<>(null, newTail, oldTail.value, oldTail.id)
                     );
+                    touch(content, newTail, oldNextToTail, m.pseudoTail);
+                    journal(content, ADD_LAST, newTail.value(modificationCount + 1).value);
                 }
         );
 
-        return new PersistentLinkedList<>(content, count + 1, modificationCount + 1);
+        return commit(content, count + 1);
     }
 
     private PersistentLinkedList<T> removeFirst(PersistentContent<DoubleLinkedContent<T>> content) {
@@ -307,9 +432,11 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
                                     null, oldHeadValue.value,
                                     oldHeadValue.id)
                     );
+                    touch(content, oldHeadValue.next, oldNextToNextToHead, oldHead);
+                    journal(content, REMOVE_FIRST, null);
                 }
         );
-        return new PersistentLinkedList<>(content, count - 1, modificationCount + 1);
+        return commit(content, count - 1);
     }
 
     private PersistentLinkedList<T> removeLast(PersistentContent<DoubleLinkedContent<T>> content) {
@@ -324,20 +451,191 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
                                     oldNextToNextToTailValue.value,
                                     oldNextToNextToTailValue.id)
                     );
-                    oldTail.update(modificationCount,
+                    oldTail.update(modificationCount + 1,
                             new DoubleLinkedData<>(null,
                                     oldNextToNextToTail,
                                     oldTailValue.value,
                                     oldTailValue.id)
                     );
+                    touch(content, oldTailValue.previous, oldNextToNextToTail, oldTail);
+                    journal(content, REMOVE_LAST, null);
                 }
         );
-        return new PersistentLinkedList<>(content, count - 1, modificationCount + 1);
+        return commit(content, count - 1);
+    }
+
+
+    public Flow.Publisher<List<VersionChange<Integer, T>>> changes() {
+        return changes(ForkJoinPool.commonPool(), 64);
+    }
+
+    public Flow.Publisher<List<VersionChange<Integer, T>>> changes(Executor executor, int maxBatch) {
+        return publisher(executor, maxBatch, this::diff);
     }
 
+    @SuppressWarnings("unchecked")
+    public Stream<Change<Integer, T>> diff(int fromVersion, int toVersion) {
+        materialize();
+        checkVersion(fromVersion);
+        checkVersion(toVersion);
+
+        var low = Math.min(fromVersion, toVersion);
+        var high = Math.max(fromVersion, toVersion);
+        var candidates = Collections.<PersistentNode<DoubleLinkedData<T>>>newSetFromMap(new IdentityHashMap<>());
+        if (nodes.changes.covers(low)) {
+            for (var id : nodes.changes.touched(low, high)) {
+                candidates.add((PersistentNode<DoubleLinkedData<T>>) nodes.changes.keyOf(id));
+            }
+        } else {
+            candidates.addAll(positions(fromVersion, null).keySet());
+            candidates.addAll(positions(toVersion, null).keySet());
+        }
+        candidates.remove(nodes.content.pseudoHead);
+        candidates.remove(nodes.content.pseudoTail);
+
+        var fromPositions = positions(fromVersion, candidates);
+        var toPositions = positions(toVersion, candidates);
+        return candidates.stream().map(node -> {
+                    var fromIndex = fromPositions.get(node);
+                    var toIndex = toPositions.get(node);
+                    return Change.between(toIndex != null ? toIndex : fromIndex,
+                            fromIndex != null, fromIndex != null ? node.value(fromVersion).value.value(fromVersion) : null,
+                            toIndex != null, toIndex != null ? node.value(toVersion).value.value(toVersion) : null);
+                }).filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Change::key));
+    }
 
+    private Map<PersistentNode<DoubleLinkedData<T>>, Integer> positions(int version, Set<PersistentNode<DoubleLinkedData<T>>> wanted) {
+        var result = new IdentityHashMap<PersistentNode<DoubleLinkedData<T>>, Integer>();
+        var current = nodes.content.pseudoHead.value(version).next;
+        for (var i = 0; current != null && current != nodes.content.pseudoTail; i++) {
+            if (wanted == null || wanted.contains(current)) {
+                result.put(current, i);
+                if (wanted != null && result.size() == wanted.size()) {
+                    break;
+                }
+            }
+            current = current.value(version).next;
+        }
+
+        return result;
+    }
+
+    @SafeVarargs
+    private void touch(PersistentContent<DoubleLinkedContent<T>> content, PersistentNode<DoubleLinkedData<T>>... touched) {
+        for (var node : touched) {
+            content.changes.touchKey(modificationCount + 1, node);
+        }
+    }
+
+    private void journal(PersistentContent<DoubleLinkedContent<T>> content, int operation, PersistentNode<T> element) {
+        if (content.checkpoints != null) {
+            content.checkpoints.record(modificationCount + 1, operation, element);
+        }
+    }
+
+    /**
+     * Starts checkpointing the shared history every {@code interval} versions. Asking again for the same
+     * interval is a no-op; asking for another one is rejected.
+     */
+    public PersistentLinkedList<T> checkpointEvery(int interval) {
+        materialize();
+        if (nodes.checkpoints == null) {
+            var checkpoints = new Checkpoints(interval, nodes.maxModification.value);
+            checkpoints.put(nodes.maxModification.value, elements(nodes, nodes.maxModification.value));
+            nodes.checkpoints = checkpoints;
+        } else if (nodes.checkpoints.interval() != interval) {
+            throw new IllegalStateException("Checkpoints already exist with another interval!");
+        }
+
+        return this;
+    }
+
+    private static <T> Object[] elements(PersistentContent<DoubleLinkedContent<T>> content, int version) {
+        var checkpoints = content.checkpoints;
+        var from = checkpoints == null ? -1 : checkpoints.floor(version);
+        if (from < 0 || !checkpoints.journaled(version)) {
+            var result = new ArrayList<PersistentNode<T>>();
+            var current = content.content.pseudoHead.value(version).next;
+            for (; current != content.content.pseudoTail; current = current.value(version).next) {
+                result.add(current.value(version).value);
+            }
+            return result.toArray();
+        }
+
+        var result = new ArrayDeque<>(Arrays.asList(checkpoints.snapshot(from)));
+        for (var v = from + 1; v <= version; v++) {
+            switch (checkpoints.operation(v)) {
+                case ADD_FIRST -> result.addFirst(checkpoints.argument(v));
+                case ADD_LAST -> result.addLast(checkpoints.argument(v));
+                case REMOVE_FIRST -> result.pollFirst();
+                case REMOVE_LAST -> result.pollLast();
+                case CLEAR -> result.clear();
+            }
+        }
+
+        return result.toArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentNode<T> elementAt(Checkpoints checkpoints, int from, int index) {
+        var size = count;
+        for (var version = modificationCount; version > from; version--) {
+            switch (checkpoints.operation(version)) {
+                case ADD_FIRST -> {
+                    if (index == 0) {
+                        return (PersistentNode<T>) checkpoints.argument(version);
+                    }
+                    index--;
+                    size--;
+                }
+                case ADD_LAST -> {
+                    if (index == size - 1) {
+                        return (PersistentNode<T>) checkpoints.argument(version);
+                    }
+                    size--;
+                }
+                case REMOVE_FIRST -> {
+                    index++;
+                    size++;
+                }
+                case REMOVE_LAST -> size++;
+            }
+        }
+
+        return (PersistentNode<T>) checkpoints.snapshot(from)[index];
+    }
+
+    private Integer knownHash() {
+        return nodes.changes.hasHash(modificationCount) ? nodes.changes.hash(modificationCount) : null;
+    }
+
+    private static <T> PersistentLinkedList<T> withHash(PersistentLinkedList<T> result, Integer hash) {
+        if (hash != null) {
+            result.nodes.changes.recordHash(result.modificationCount, hash);
+        }
+
+        return result;
+    }
+
+    private PersistentLinkedList<T> commit(PersistentContent<DoubleLinkedContent<T>> content, int newCount) {
+        content.changes.recordCount(modificationCount + 1, newCount);
+        if (content.checkpoints != null && content.checkpoints.due(modificationCount + 1)) {
+            content.checkpoints.put(modificationCount + 1, elements(content, modificationCount + 1));
+        }
+        return new PersistentLinkedList<>(content, newCount, modificationCount + 1);
+    }
+
+    @SuppressWarnings("unchecked")
     private ArrayList<T> toList(int modificationStep) {
         var newList = new ArrayList<T>();
+        if (nodes.checkpoints != null) {
+            for (var element : elements(nodes, modificationStep)) {
+                newList.add(((PersistentNode<T>) element).value(modificationStep));
+            }
+            return newList;
+        }
+
         var current = nodes.content.pseudoHead.value(modificationStep).next;
         for (var i = count; i != 0; i--) {
             newList.add(current.value(modificationStep).value.value(modificationStep));
@@ -347,35 +645,171 @@ public class PersistentLinkedList<T> extends BasePersistentCollection<Integer, T
     }
 
     public PersistentArray<T> toPersistentArray() {
-        var content = new PersistentContent<List<PersistentNode<T>>>(
-                new ArrayList<>(), nodes.maxModification);
+        return new PersistentArray<>(new CollectionView<>(this::valueIterator, this::get), count, modificationCount);
+    }
 
-        var current = nodes.content.pseudoHead.value(modificationCount).next;
-        for (var i = count; i != 0; i--) {
-            var currentValue = current.value(modificationCount);
-            content.content.add(currentValue.value);
-            current = currentValue.next;
+    @SuppressWarnings("unchecked")
+    private Iterator<T> valueIterator() {
+        var view = this.view;
+        if (view != null) {
+            return view.iterator();
+        }
+
+        var snapshot = snapshot(true);
+        return snapshot != null ? Arrays.stream(snapshot).map(value -> (T) value).iterator() : liveIterator();
+    }
+
+    private Object[] snapshot(boolean eager) {
+        return snapshot(eager, () -> {
+            var values = new Object[count];
+            var items = liveIterator();
+            for (var i = 0; i < count; i++) {
+                values[i] = items.next();
+            }
+            return values;
+        }, values -> values.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Iterator<T> liveIterator() {
+
+        var checkpoints = nodes.checkpoints;
+        if (checkpoints != null && checkpoints.floor(modificationCount) >= 0 && checkpoints.journaled(modificationCount)) {
+            return Arrays.stream(elements(nodes, modificationCount))
+                    .map(element -> ((PersistentNode<T>) element).value(modificationCount))
+                    .iterator();
+        }
+
+        return new Iterator<>() {
+            private PersistentNode<DoubleLinkedData<T>> current = nodes.content.pseudoHead.value(modificationCount).next;
+            private int left = count;
+
+            @Override
+            public boolean hasNext() {
+                return left > 0;
+            }
+
+            @Override
+            public T next() {
+                if (left == 0) {
+                    throw new NoSuchElementException();
+                }
+
+                var data = current.value(modificationCount);
+                current = data.next;
+                left--;
+                return data.value.value(modificationCount);
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof PersistentLinkedList<?> other) || count != other.count) {
+            return false;
+        }
+
+        if (sameVersion(other)) {
+            return true;
+        }
+
+        if (hashCode() != other.hashCode()) {
+            return false;
+        }
+
+        var items = valueIterator();
+        var otherItems = other.valueIterator();
+        while (items.hasNext()) {
+            if (!Objects.equals(items.next(), otherItems.next())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if (view == null && nodes.changes.hasHash(modificationCount)) {
+            return nodes.changes.hash(modificationCount);
+        }
+
+        var hash = SequenceHash.EMPTY;
+        for (var items = valueIterator(); items.hasNext(); ) {
+            hash = SequenceHash.append(hash, items.next());
         }
 
-        return new PersistentArray<>(content, count, modificationCount, modificationCount);
+        if (view == null) {
+            nodes.changes.recordHash(modificationCount, hash);
+        }
+
+        return hash;
     }
 
+    @Override
+    public HistoryStats historyStats() {
+        var collector = new HistoryStats.Collector();
+        if (view != null) {
+            return collector.build(count);
+        }
+
+        var seen = Collections.newSetFromMap(new IdentityHashMap<PersistentNode<?>, Boolean>());
+        var pending = new ArrayDeque<PersistentNode<DoubleLinkedData<T>>>();
+        pending.add(nodes.content.pseudoHead);
+        pending.add(nodes.content.pseudoTail);
+        while (!pending.isEmpty()) {
+            var node = pending.poll();
+            if (!seen.add(node)) {
+                continue;
+            }
+
+            collector.node(node);
+            for (var m = node.modifications.firstNode(); m != null; m = BinaryTree.successor(m)) {
+                var data = m.data;
+                collector.bytes(LINK_BYTES);
+                if (data.next != null) {
+                    pending.add(data.next);
+                }
+                if (data.previous != null) {
+                    pending.add(data.previous);
+                }
+                if (data.value != null && seen.add(data.value)) {
+                    collector.node(data.value);
+                }
+            }
+        }
+
+        if (nodes.checkpoints != null) {
+            collector.bytes(nodes.checkpoints.bytes());
+        }
+
+        return collector.build(count);
+    }
+
+    public PersistentLinkedList<T> asOf(Instant instant) {
+        var version = versionAt(instant);
+        return version == modificationCount ? this : new PersistentLinkedList<>(nodes, countAt(version), version);
+    }
 
     @Override
     public PersistentLinkedList<T> undo() {
         return modificationCount == startModificationCount ? this :
                 new PersistentLinkedList<>(
                         nodes,
-                        recalculateCount(modificationCount - 1),
+                        countAt(modificationCount - 1),
                         modificationCount - 1);
 
     }
 
     @Override
     public PersistentLinkedList<T> redo() {
-        return modificationCount == nodes.maxModification.value ? this :
+        return view != null || modificationCount == nodes.maxModification.value ? this :
                 new PersistentLinkedList<>(nodes,
-                        recalculateCount(modificationCount + 1),
+                        countAt(modificationCount + 1),
                         modificationCount + 1);
 
     }
@@ -1,222 +1,799 @@
 package persistence.structure.map;
 
 import persistence.base.*;
+import persistence.base.change.Change;
+import persistence.base.change.ConflictResolver;
+import persistence.base.change.PresenceBitmap;
+import persistence.base.change.PresenceIndex;
+import persistence.base.change.Revision;
+import persistence.base.change.VersionChange;
+import persistence.base.codec.HistoryCodec;
+import persistence.base.codec.HistorySegment;
+import persistence.base.index.SecondaryIndex;
 import persistence.base.tree.BinaryTree;
+import persistence.base.tree.Node;
+import persistence.metrics.Metrics;
 import persistence.structure.array.PersistentArray;
 import persistence.structure.list.PersistentLinkedList;
 
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public class PersistentMap<TK, TV> extends BasePersistentCollection<TK, TV, BinaryTree<TK, PersistentNode<TV>>> implements Iterable<Map.Entry<TK, TV>>, IUndoRedo<PersistentMap<TK, TV>> {
     public PersistentMap() {
         nodes = new PersistentContent<>(new BinaryTree<>(), new ModificationCount(modificationCount));
+        nodes.changes.recordCount(modificationCount, 0);
+        nodes.changes.recordHash(modificationCount, 0);
     }
 
-    private PersistentMap(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int count, int modificationCount) {
+    protected PersistentMap(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int count, int modificationCount) {
         super(nodes, count, modificationCount);
     }
 
+    protected PersistentMap<TK, TV> create(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int count, int modificationCount) {
+        return new PersistentMap<>(nodes, count, modificationCount);
+    }
+
+    protected boolean exists(PersistentNode<TV> node, int modificationStep) {
+        return node.present(modificationStep, nodes.lastClear(modificationStep));
+    }
+
+    protected TV valueAt(PersistentNode<TV> node, int modificationStep) {
+        return node.value(modificationStep, nodes.lastClear(modificationStep));
+    }
+
     protected PersistentContent<BinaryTree<TK, PersistentNode<TV>>> reassembleNodes() {
         var newContent = new PersistentContent<>(
-                new BinaryTree<TK, PersistentNode<TV>>(),
+                new BinaryTree<TK, PersistentNode<TV>>(nodes.content.comparator()),
                 new ModificationCount(modificationCount)
         );
 
-        var allModifications = new ArrayList<Map.Entry<TK, Map.Entry<Integer, TV>>>();
+        BitSet touched = null;
+        if (nodes.changes.covers(modificationCount)) {
+            touched = new BitSet();
+            for (var id : nodes.changes.touched(modificationCount, nodes.maxModification.value)) {
+                touched.set(id);
+            }
+        }
 
         for (var entry : nodes.content) {
-            var nodeKey = entry.getKey();
-            var persistentNode = entry.getValue();
-
-            var neededModifications = persistentNode.modifications.toList()
-                    .stream()
-                    .filter(m -> m.getKey() <= modificationCount)
-                    .map(m -> Map.entry(nodeKey, m))
-                    .sorted(Comparator.comparing(m -> m.getValue().getKey())).toList();
+            var node = entry.getValue();
+            var id = nodes.changes.findId(entry.getKey());
+            if (touched != null && id >= 0 && !touched.get(id)) {
+                // nothing was written here after the fork, so both branches can share the node until one writes
+                node.shared = true;
+                newContent.content.insert(entry.getKey(), node);
+                continue;
+            }
 
-            allModifications.addAll(neededModifications);
+            var newNode = node.truncated(modificationCount);
+            if (newNode != null) {
+                newContent.content.insert(entry.getKey(), newNode);
+            }
         }
 
-        for (var mod : allModifications) {
-            var nodeKey = mod.getKey();
-            var step = mod.getValue().getKey();
-            var nodeVal = mod.getValue().getValue();
-
-            newContent.update(c -> {
-                var node = c.get(nodeKey);
-                if (node == null) {
-                    c.insert(nodeKey, new PersistentNode<>(step, nodeVal));
-                } else {
-                    node.update(step, nodeVal);
-                }
-            });
+        newContent.changes = nodes.changes.truncated(modificationCount);
+        newContent.branchOf(nodes, modificationCount);
+        if (newContent.changes.count(modificationCount) < 0) {
+            newContent.changes.recordCount(modificationCount, count);
         }
 
         return newContent;
     }
 
+    @Override
+    protected PersistentMap<TK, TV> forked(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes) {
+        return create(nodes, count, modificationCount);
+    }
+
     private void implAdd(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int modificationCount, TK key, TV value) {
-        nodes.update(c -> c.insert(key, new PersistentNode<>(modificationCount + 1, value)));
+        nodes.update(c -> {
+            var node = writable(c, key);
+            if (node == null) {
+                c.insert(key, new PersistentNode<>(modificationCount + 1, value));
+            } else {
+                node.update(modificationCount + 1, value);
+            }
+            nodes.changes.touchKey(modificationCount + 1, key);
+        });
     }
 
     private void implRemove(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int modificationCount, TK key) {
-        nodes.update(c -> c.get(key).update(modificationCount + 1, null));
+        nodes.update(c -> {
+            writable(c, key).update(modificationCount + 1, null);
+            nodes.changes.touchKey(modificationCount + 1, key);
+        });
     }
 
-    private void implClear(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int modificationCount) {
+    protected void implClear(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int modificationCount) {
+        nodes.update(c -> nodes.clearAt(modificationCount + 1));
+    }
+
+    private void implReplace(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int modificationCount, TK key, TV value) {
         nodes.update(c -> {
-            for (var keyValuePair : c.toList()) {
-                keyValuePair.getValue().update(modificationCount + 1, null);
-            }
+            writable(c, key).update(modificationCount + 1, value);
+            nodes.changes.touchKey(modificationCount + 1, key);
         });
     }
 
-    private void implReplace(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int modificationCount, TK key, TV value) {
-        nodes.update(c -> c.get(key).update(modificationCount + 1, value));
+    protected PersistentNode<TV> writable(BinaryTree<TK, PersistentNode<TV>> content, TK key) {
+        var node = content.get(key);
+        if (node != null && node.shared) {
+            node = node.copy();
+            content.insert(key, node);
+        }
+
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentMap<TK, TV> commit(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int newCount) {
+        var previousCount = nodes.changes.count(modificationCount);
+        if (previousCount >= 0) {
+            nodes.changes.recordCount(modificationCount + 1, previousCount + newCount - count);
+        }
+
+        var previousClear = nodes.lastClear(modificationCount);
+        var clear = nodes.lastClear(modificationCount + 1);
+        if (clear == modificationCount + 1) {
+            nodes.changes.recordHash(modificationCount + 1, 0);
+        } else if (nodes.changes.hasHash(modificationCount)) {
+            var hash = nodes.changes.hash(modificationCount);
+            for (var id : nodes.changes.touched(modificationCount + 1)) {
+                var key = (TK) nodes.changes.keyOf(id);
+                var node = nodes.content.get(key);
+                hash += entryHash(key, node.value(modificationCount + 1, clear))
+                        - entryHash(key, node.value(modificationCount, previousClear));
+            }
+            nodes.changes.recordHash(modificationCount + 1, hash);
+        }
+
+        if (nodes.presence != null && nodes.presence.has(modificationCount)) {
+            var presence = clear == modificationCount + 1 ? PresenceBitmap.EMPTY : nodes.presence.root(modificationCount);
+            for (var id : nodes.changes.touched(modificationCount + 1)) {
+                presence = presence.with(id, nodes.content.get((TK) nodes.changes.keyOf(id)).present(modificationCount + 1, clear));
+            }
+            nodes.presence.record(modificationCount + 1, presence);
+        }
+
+        if (nodes.aggregates != null) {
+            annotate(nodes);
+        }
+
+        if (nodes.indexes != null) {
+            for (var index : nodes.indexes.values()) {
+                reindex((SecondaryIndex<TK, TV, ?>) index, nodes, previousClear, clear);
+            }
+        }
+
+        if (nodes.checkpoints != null && nodes.checkpoints.due(modificationCount + 1)) {
+            nodes.checkpoints.put(modificationCount + 1, keysAt(nodes, modificationCount + 1));
+        }
+
+        return create(nodes, newCount, modificationCount + 1);
+    }
+
+    protected void annotate(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes) {
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A> void reindex(SecondaryIndex<TK, TV, A> index, PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes,
+                             int previousClear, int clear) {
+        if (!index.has(modificationCount)) {
+            return;
+        }
+
+        var cleared = clear == modificationCount + 1;
+        var root = cleared ? null : index.root(modificationCount);
+        for (var id : nodes.changes.touched(modificationCount + 1)) {
+            var key = (TK) nodes.changes.keyOf(id);
+            var node = nodes.content.get(key);
+            root = index.update(root, key, cleared ? null : node.value(modificationCount, previousClear),
+                    node.value(modificationCount + 1, clear));
+        }
+        index.record(modificationCount + 1, root);
+    }
+
+    /**
+     * Attaches the index to the history this handle shares and returns this same handle, so every handle of
+     * that history can query the index and later writes keep it up to date, whichever handle registered it.
+     */
+    public <A> PersistentMap<TK, TV> withIndex(String name, Function<? super TV, ? extends A> attribute) {
+        var index = new SecondaryIndex<TK, TV, A>(attribute, nodes.content::compareKeys);
+        var latest = nodes.maxModification.value;
+        SecondaryIndex.Node<Integer, List<SecondaryIndex.Bucket<TK, A>>> root = null;
+        for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            if (exists(node.data, latest)) {
+                root = index.update(root, node.key, null, valueAt(node.data, latest));
+            }
+        }
+        index.record(latest, root);
+
+        if (nodes.indexes == null) {
+            nodes.indexes = new LinkedHashMap<>();
+        }
+        nodes.indexes.put(name, index);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SecondaryIndex<TK, TV, Object> index(String name) {
+        var index = nodes.indexes == null ? null : nodes.indexes.get(name);
+        if (index == null) {
+            throw new IllegalStateException("Such an index does not exist!");
+        }
+
+        return (SecondaryIndex<TK, TV, Object>) index;
+    }
+
+    public Set<TK> keysWhere(String name, Object attribute) {
+        var index = index(name);
+        var result = new LinkedHashSet<TK>();
+        if (index.has(modificationCount)) {
+            index.forEach(index.root(modificationCount), attribute, result::add);
+            return result;
+        }
+
+        for (var node = firstVisible(); node != null; node = nextVisible(node)) {
+            if (Objects.equals(index.attributeOf(valueAt(node.data, modificationCount)), attribute)) {
+                result.add(node.key);
+            }
+        }
+
+        return result;
+    }
+
+    public int countWhere(String name, Object attribute) {
+        var index = index(name);
+        return index.has(modificationCount)
+                ? index.count(index.root(modificationCount), attribute)
+                : keysWhere(name, attribute).size();
     }
 
     public PersistentMap<TK, TV> add(TK key, TV value) {
         var tryNode = nodes.content.get(key);
-        if (tryNode != null && tryNode.modifications.toList().stream().anyMatch(m -> m.getKey() <= modificationCount)) {
+        if (tryNode != null && exists(tryNode, modificationCount)) {
             throw new IllegalArgumentException("Such a key is already exists!");
         }
 
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
+            var res = branch();
             implAdd(res, modificationCount, key, value);
 
-            return new PersistentMap<>(res, count + 1, modificationCount + 1);
+            return commit(res, count + 1);
         }
 
         implAdd(nodes, modificationCount, key, value);
 
-        return new PersistentMap<>(nodes, count + 1, modificationCount + 1);
+        return commit(nodes, count + 1);
     }
 
     public PersistentMap<TK, TV> remove(TK key) {
         var tryNode = nodes.content.get(key);
-        if (tryNode == null || tryNode.modifications.toList().stream().allMatch(m -> m.getKey() > modificationCount)) {
+        if (tryNode == null || !exists(tryNode, modificationCount)) {
             return this;
         }
 
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
+            var res = branch();
             implRemove(res, modificationCount, key);
 
-            return new PersistentMap<>(res, count - 1, modificationCount + 1);
+            return commit(res, count - 1);
         }
 
         implRemove(nodes, modificationCount, key);
 
-        return new PersistentMap<>(nodes, count - 1, modificationCount + 1);
+        return commit(nodes, count - 1);
     }
 
     public PersistentMap<TK, TV> clear() {
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
+            var res = branch();
             implClear(res, modificationCount);
 
-            return new PersistentMap<>(res, 0, modificationCount + 1);
+            return commit(res, 0);
         }
 
         implClear(nodes, modificationCount);
 
-        return new PersistentMap<>(nodes, 0, modificationCount + 1);
+        return commit(nodes, 0);
     }
 
     public PersistentMap<TK, TV> replace(TK key, TV value) {
         var tryNode = nodes.content.get(key);
-        if (tryNode == null || tryNode.modifications.toList().stream().allMatch(m -> m.getKey() > modificationCount)) {
+        if (tryNode == null || !exists(tryNode, modificationCount)) {
             throw new IllegalArgumentException("Such a key does not exists!");
         }
 
         if (nodes.maxModification.value > modificationCount) {
-            var res = reassembleNodes();
+            var res = branch();
             implReplace(res, modificationCount, key, value);
 
-            return new PersistentMap<>(res, count, modificationCount + 1);
+            return commit(res, count);
         }
 
         implReplace(nodes, modificationCount, key, value);
 
-        return new PersistentMap<>(nodes, count, modificationCount + 1);
+        return commit(nodes, count);
+    }
+
+    public int prune(int oldestRetainedVersion) {
+        checkVersion(oldestRetainedVersion);
+        return nodes.rewrite(c -> c.prune((key, node) -> valueAt(node, oldestRetainedVersion) == null &&
+                node.history(oldestRetainedVersion + 1, Integer.MAX_VALUE).allMatch(m -> m.value() == null)
+        ));
+    }
+
+    public int compactHistory(HistoryCodec<TV> codec) {
+        var sealed = 0;
+        for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            sealed += node.data.compact(codec);
+        }
+
+        return sealed;
+    }
+
+    public int spillHistory(int olderThanVersion, HistoryCodec<TV> codec, HistorySegment segment) {
+        checkVersion(olderThanVersion);
+        if (!codec.spillable()) {
+            throw new IllegalArgumentException("Such a codec cannot spill history!");
+        }
+
+        var spilled = 0;
+        for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            spilled += node.data.spill(olderThanVersion, codec, segment);
+        }
+
+        return spilled;
+    }
+
+    public static <TK, TV> PersistentMap<TK, TV> merge(PersistentMap<TK, TV> base, PersistentMap<TK, TV> left,
+                                                       PersistentMap<TK, TV> right, ConflictResolver<TK, TV> resolver) {
+        var candidates = new LinkedHashSet<TK>();
+        candidates.addAll(changedSince(base, left));
+        candidates.addAll(changedSince(base, right));
+
+        var updates = new LinkedHashMap<TK, TV>();
+        for (var key : candidates) {
+            var baseValue = base.get(key);
+            var leftValue = left.get(key);
+            var rightValue = right.get(key);
+            TV merged;
+            if (Objects.equals(leftValue, baseValue)) {
+                merged = rightValue;
+            } else if (Objects.equals(rightValue, baseValue) || Objects.equals(leftValue, rightValue)) {
+                merged = leftValue;
+            } else {
+                merged = resolver.resolve(key, baseValue, leftValue, rightValue);
+            }
+
+            if (!Objects.equals(merged, leftValue)) {
+                updates.put(key, merged);
+            }
+        }
+
+        return left.applyAll(updates);
+    }
+
+    private static <TK, TV> Collection<TK> changedSince(PersistentMap<TK, TV> base, PersistentMap<TK, TV> branch) {
+        if (base.modificationCount <= branch.modificationCount &&
+                branch.nodes.sharesHistory(base.nodes, base.modificationCount)) {
+            return branch.diff(base.modificationCount, branch.modificationCount).map(Change::key).toList();
+        }
+
+        var keys = new ArrayList<TK>();
+        for (var node = base.firstVisible(); node != null; node = base.nextVisible(node)) {
+            keys.add(node.key);
+        }
+        for (var node = branch.firstVisible(); node != null; node = branch.nextVisible(node)) {
+            keys.add(node.key);
+        }
+
+        return keys;
+    }
+
+    private PersistentMap<TK, TV> applyAll(Map<TK, TV> updates) {
+        if (updates.isEmpty()) {
+            return this;
+        }
+
+        var newCount = count;
+        for (var update : updates.entrySet()) {
+            newCount += (update.getValue() != null ? 1 : 0) - (get(update.getKey()) != null ? 1 : 0);
+        }
+
+        var content = nodes.maxModification.value > modificationCount ? branch() : nodes;
+        content.update(c -> {
+            for (var update : updates.entrySet()) {
+                var node = writable(c, update.getKey());
+                if (node == null) {
+                    c.insert(update.getKey(), new PersistentNode<>(modificationCount + 1, update.getValue()));
+                } else {
+                    node.update(modificationCount + 1, update.getValue());
+                }
+                content.changes.touchKey(modificationCount + 1, update.getKey());
+            }
+        });
+
+        return commit(content, newCount);
+    }
+
+    public Flow.Publisher<List<VersionChange<TK, TV>>> changes() {
+        return changes(ForkJoinPool.commonPool(), 64);
+    }
+
+    public Flow.Publisher<List<VersionChange<TK, TV>>> changes(Executor executor, int maxBatch) {
+        return publisher(executor, maxBatch, this::diff);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Stream<Change<TK, TV>> diff(int fromVersion, int toVersion) {
+        checkVersion(fromVersion);
+        checkVersion(toVersion);
+
+        var low = Math.min(fromVersion, toVersion);
+        var high = Math.max(fromVersion, toVersion);
+        Stream<TK> keys = nodes.changes.covers(low) && !nodes.clearedBetween(low, high)
+                ? Arrays.stream(nodes.changes.touched(low, high)).mapToObj(id -> (TK) nodes.changes.keyOf(id))
+                : nodes.content.toList().stream().map(Map.Entry::getKey);
+
+        return keys.map(key -> {
+            var node = nodes.content.get(key);
+            if (node == null) {
+                return null;
+            }
+
+            var oldValue = valueAt(node, fromVersion);
+            var newValue = valueAt(node, toVersion);
+            return Change.between(key, oldValue != null, oldValue, newValue != null, newValue);
+        }).filter(Objects::nonNull);
+    }
+
+    public Stream<Revision<TV>> history(TK key) {
+        return history(key, 0, modificationCount);
+    }
+
+    public Stream<Revision<TV>> history(TK key, int fromVersion, int toVersion) {
+        return history(nodes.content.get(key), fromVersion, toVersion);
     }
 
     public TV get(TK key) {
+        var snapshot = snapshot(false);
+        if (snapshot != null) {
+            return snapshot.get(key);
+        }
+
         var node = nodes.content.get(key);
 
         return node == null
                 ? null
-                : node.modifications.findNearestLess(modificationCount);
+                : valueAt(node, modificationCount);
     }
 
-    public Set<TK> keySet() {
-        return nodes.content.
-                toList().
-                stream().
-                filter(k -> k.getValue().modifications.
-                        toList().
-                        stream().
-                        anyMatch(m -> m.getKey() <= modificationCount)
-                ).
-                map(Map.Entry::getKey).
-                collect(Collectors.toSet());
+    @SuppressWarnings("unchecked")
+    private Map<TK, TV> snapshot(boolean eager) {
+        return snapshot(eager, () -> {
+            var keys = keysAt(nodes, modificationCount);
+            var comparator = nodes.content.comparator();
+            Map<TK, TV> entries = comparator == null ? new LinkedHashMap<>(keys.length * 2) : new TreeMap<>(comparator);
+            for (var key : keys) {
+                entries.put((TK) key, valueAt(nodes.content.get((TK) key), modificationCount));
+            }
+            return Collections.unmodifiableMap(entries);
+        }, Map::size);
+    }
+
+    public PersistentMap<TK, TV> trackPresence() {
+        if (nodes.presence == null) {
+            nodes.presence = new PresenceIndex();
+        }
+        if (!nodes.presence.has(modificationCount)) {
+            var presence = PresenceBitmap.EMPTY;
+            for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+                if (exists(node.data, modificationCount)) {
+                    presence = presence.with(nodes.changes.idOf(node.key), true);
+                }
+            }
+            nodes.presence.record(modificationCount, presence);
+        }
+
+        return this;
     }
 
+    /**
+     * Starts checkpointing the shared history every {@code interval} versions. Asking again for the same
+     * interval is a no-op; asking for another one is rejected.
+     */
+    public PersistentMap<TK, TV> checkpointEvery(int interval) {
+        if (nodes.checkpoints == null) {
+            var checkpoints = new Checkpoints(interval, nodes.maxModification.value);
+            checkpoints.put(nodes.maxModification.value, keysAt(nodes, nodes.maxModification.value));
+            nodes.checkpoints = checkpoints;
+        } else if (nodes.checkpoints.interval() != interval) {
+            throw new IllegalStateException("Checkpoints already exist with another interval!");
+        }
+
+        return this;
+    }
 
+    @SuppressWarnings("unchecked")
+    private static <TK, TV> Object[] keysAt(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int version) {
+        var clear = nodes.lastClear(version);
+        var checkpoints = nodes.checkpoints;
+        var from = checkpoints == null ? -1 : checkpoints.floor(version);
+        var keys = new ArrayList<TK>();
+        if (from < 0 || !nodes.changes.covers(from)) {
+            for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+                if (node.data.present(version, clear)) {
+                    keys.add(node.key);
+                }
+            }
+            return keys.toArray();
+        }
+
+        var snapshot = checkpoints.snapshot(from);
+        var candidates = new HashSet<TK>(snapshot.length * 2);
+        for (var key : snapshot) {
+            candidates.add((TK) key);
+        }
+        for (var id : nodes.changes.touched(from, version)) {
+            candidates.add((TK) nodes.changes.keyOf(id));
+        }
+
+        for (var key : candidates) {
+            var node = nodes.content.get(key);
+            if (node != null && node.present(version, clear)) {
+                keys.add(key);
+            }
+        }
+        keys.sort(nodes.content::compareKeys);
+        return keys.toArray();
+    }
+
+    private boolean checkpointed() {
+        return nodes.checkpoints != null && nodes.checkpoints.floor(modificationCount) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> Set<R> presentKeys(Function<TK, R> mapper) {
+        var presence = nodes.presence.root(modificationCount);
+        var result = new HashSet<R>(presence.cardinality() * 2);
+        for (var id = presence.nextSetBit(0); id >= 0; id = presence.nextSetBit(id + 1)) {
+            result.add(mapper.apply((TK) nodes.changes.keyOf(id)));
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Set<TK> keySet() {
+        if (nodes.presence != null && nodes.presence.has(modificationCount)) {
+            return presentKeys(key -> key);
+        }
+
+        var result = new HashSet<TK>();
+        if (checkpointed()) {
+            for (var key : keysAt(nodes, modificationCount)) {
+                result.add((TK) key);
+            }
+            return result;
+        }
+
+        for (var node = firstVisible(); node != null; node = nextVisible(node)) {
+            result.add(node.key);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
     public Set<TV> valueSet() {
-        return nodes.content.
-                toList().
-                stream().
-                filter(k -> k.getValue().modifications.
-                        toList().
-                        stream().
-                        anyMatch(m -> m.getKey() <= modificationCount)
-                ).
-                map(k -> k.getValue().value(modificationCount)).
-                collect(Collectors.toSet());
+        if (nodes.presence != null && nodes.presence.has(modificationCount)) {
+            return presentKeys(key -> valueAt(nodes.content.get(key), modificationCount));
+        }
+
+        var result = new HashSet<TV>();
+        if (checkpointed()) {
+            for (var key : keysAt(nodes, modificationCount)) {
+                result.add(valueAt(nodes.content.get((TK) key), modificationCount));
+            }
+            return result;
+        }
+
+        for (var node = firstVisible(); node != null; node = nextVisible(node)) {
+            result.add(valueAt(node.data, modificationCount));
+        }
+
+        return result;
     }
 
+    @SuppressWarnings("unchecked")
     public Iterator<Map.Entry<TK, TV>> iterator() {
-        return nodes.content.toList().stream()
-                .filter(k ->
-                        k.getValue().modifications.toList().stream().anyMatch(m -> m.getKey() <= modificationCount))
-                .map(k ->
-                        Map.entry(k.getKey(), k.getValue().value(modificationCount))).toList().iterator();
+        var snapshot = snapshot(true);
+        if (snapshot != null) {
+            return snapshot.entrySet().iterator();
+        }
+
+        var entries = new ArrayList<Map.Entry<TK, TV>>(count);
+        if (checkpointed()) {
+            for (var key : keysAt(nodes, modificationCount)) {
+                entries.add(Map.entry((TK) key, valueAt(nodes.content.get((TK) key), modificationCount)));
+            }
+        } else {
+            for (var node = firstVisible(); node != null; node = nextVisible(node)) {
+                entries.add(Map.entry(node.key, valueAt(node.data, modificationCount)));
+            }
+        }
+        if (Metrics.enabled()) {
+            Metrics.sink().materialized(getClass(), entries.size());
+        }
+
+        return entries.iterator();
+    }
+
+    @Override
+    public HistoryStats historyStats() {
+        var collector = new HistoryStats.Collector().tree(nodes.content);
+        for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            collector.node(node.data);
+        }
+        if (nodes.checkpoints != null) {
+            collector.bytes(nodes.checkpoints.bytes());
+        }
+
+        return collector.build(count);
+    }
+
+    public PersistentMap<TK, TV> asOf(Instant instant) {
+        var version = versionAt(instant);
+        return version == modificationCount ? this : create(nodes, countAt(version), version);
     }
 
     public PersistentMap<TK, TV> undo() {
-        return modificationCount == startModificationCount ? this : new PersistentMap<>(nodes,
-                recalculateCount(modificationCount - 1), modificationCount - 1);
+        return modificationCount == startModificationCount ? this : create(nodes,
+                countAt(modificationCount - 1), modificationCount - 1);
     }
 
     public PersistentMap<TK, TV> redo() {
         return modificationCount == nodes.maxModification.value
                 ? this
-                : new PersistentMap<>(
+                : create(
                 nodes,
-                recalculateCount(modificationCount + 1),
+                countAt(modificationCount + 1),
                 modificationCount + 1
         );
     }
 
     protected int recalculateCount(int modificationStep) {
-        return (int) nodes.content.toList()
-                .stream()
-                .filter(n -> n.getValue().modifications.toList()
-                        .stream()
-                        .anyMatch(m -> m.getKey() <= modificationStep))
-                .count();
+        var recorded = nodes.changes.count(modificationStep);
+        if (recorded >= 0) {
+            return recorded;
+        }
+
+        if (nodes.presence != null && nodes.presence.has(modificationStep)) {
+            return nodes.presence.root(modificationStep).cardinality();
+        }
+
+        if (nodes.checkpoints != null && nodes.checkpoints.floor(modificationStep) >= 0) {
+            return keysAt(nodes, modificationStep).length;
+        }
+
+        var result = 0;
+        for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            if (exists(node.data, modificationStep)) {
+                result++;
+            }
+        }
+
+        return result;
     }
 
     public PersistentArray<TV> toPersistentArray() {
-        var content = new PersistentContent<List<PersistentNode<TV>>>(new ArrayList<>(), nodes.maxModification);
+        return new PersistentArray<>(new CollectionView<>(this::valueIterator), count, modificationCount);
+    }
+
+    private Iterator<TV> valueIterator() {
+        return new Iterator<>() {
+            private Node<TK, PersistentNode<TV>> next = firstVisible();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public TV next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                var current = next;
+                next = nextVisible(current);
+                return valueAt(current.data, modificationCount);
+            }
+        };
+    }
+
+    protected Node<TK, PersistentNode<TV>> firstVisible() {
+        return visibleFrom(nodes.content.firstNode());
+    }
 
-        var persistentNodes = nodes.content.toList().stream().map(Map.Entry::getValue).toList();
-        content.content.addAll(persistentNodes);
+    protected Node<TK, PersistentNode<TV>> nextVisible(Node<TK, PersistentNode<TV>> node) {
+        return visibleFrom(BinaryTree.successor(node));
+    }
+
+    private Node<TK, PersistentNode<TV>> visibleFrom(Node<TK, PersistentNode<TV>> node) {
+        while (node != null && !exists(node.data, modificationCount)) {
+            node = BinaryTree.successor(node);
+        }
+
+        return node;
+    }
+
+    protected boolean sameView(PersistentMap<?, ?> other) {
+        return sameVersion(other);
+    }
+
+    private static int entryHash(Object key, Object value) {
+        return value == null ? 0 : Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof PersistentMap<?, ?> other) || count != other.count) {
+            return false;
+        }
+
+        if (sameView(other)) {
+            return true;
+        }
+
+        if (hashCode() != other.hashCode()) {
+            return false;
+        }
+
+        try {
+            var typed = (PersistentMap<TK, TV>) other;
+            for (var node = firstVisible(); node != null; node = nextVisible(node)) {
+                if (!valueAt(node.data, modificationCount).equals(typed.get(node.key))) {
+                    return false;
+                }
+            }
+        } catch (ClassCastException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if (nodes.changes.hasHash(modificationCount)) {
+            return nodes.changes.hash(modificationCount);
+        }
+
+        var hash = computeHash();
+        nodes.changes.recordHash(modificationCount, hash);
+        return hash;
+    }
+
+    protected int computeHash() {
+        var hash = 0;
+        for (var node = firstVisible(); node != null; node = nextVisible(node)) {
+            hash += entryHash(node.key, valueAt(node.data, modificationCount));
+        }
 
-        return new PersistentArray<>(content, count, modificationCount, modificationCount);
+        return hash;
     }
 
     public PersistentLinkedList<TV> toPersistentLinkedList() {
@@ -0,0 +1,455 @@
+package persistence.structure.map;
+
+import persistence.base.ModificationCount;
+import persistence.base.PersistentContent;
+import persistence.base.PersistentNode;
+import persistence.base.aggregate.KeyedAggregate;
+import persistence.base.aggregate.Monoid;
+import persistence.base.change.Change;
+import persistence.base.change.Revision;
+import persistence.base.tree.BinaryTree;
+import persistence.base.tree.Node;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+public class PersistentSortedMap<TK, TV> extends PersistentMap<TK, TV> {
+    private final TK fromKey, toKey;
+    private final boolean fromInclusive, toInclusive;
+
+    @SuppressWarnings("unchecked")
+    public PersistentSortedMap() {
+        this((Comparator<? super TK>) Comparator.naturalOrder());
+    }
+
+    public PersistentSortedMap(Comparator<? super TK> comparator) {
+        super(new PersistentContent<>(new BinaryTree<>(Objects.requireNonNull(comparator)), new ModificationCount(0)), 0, 0);
+        fromKey = toKey = null;
+        fromInclusive = toInclusive = false;
+    }
+
+    private PersistentSortedMap(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int count, int modificationCount,
+                                TK fromKey, boolean fromInclusive, TK toKey, boolean toInclusive) {
+        super(nodes, count, modificationCount);
+        this.fromKey = fromKey;
+        this.fromInclusive = fromInclusive;
+        this.toKey = toKey;
+        this.toInclusive = toInclusive;
+    }
+
+    @Override
+    protected PersistentSortedMap<TK, TV> create(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int count, int modificationCount) {
+        return new PersistentSortedMap<>(nodes, count, modificationCount, fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    protected void implClear(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes, int modificationCount) {
+        if (fromKey == null && toKey == null) {
+            super.implClear(nodes, modificationCount);
+            return;
+        }
+
+        nodes.update(c -> {
+            for (var node = lowestNode(c); node != null && !tooHigh(node.key); node = BinaryTree.successor(node)) {
+                if (node.data.shared) {
+                    node.data = node.data.copy();
+                }
+                node.data.update(modificationCount + 1, null);
+                nodes.changes.touchKey(modificationCount + 1, node.key);
+            }
+        });
+    }
+
+    @Override
+    protected int recalculateCount(int modificationStep) {
+        if (fromKey == null && toKey == null) {
+            return super.recalculateCount(modificationStep);
+        }
+
+        var result = 0;
+        for (var node = lowestNode(nodes.content); node != null && !tooHigh(node.key); node = BinaryTree.successor(node)) {
+            if (exists(node.data, modificationStep)) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    public Comparator<? super TK> comparator() {
+        return nodes.content.comparator();
+    }
+
+    @Override
+    public PersistentSortedMap<TK, TV> add(TK key, TV value) {
+        checkInRange(key);
+        return (PersistentSortedMap<TK, TV>) super.add(key, value);
+    }
+
+    @Override
+    public PersistentSortedMap<TK, TV> remove(TK key) {
+        return inRange(key) ? (PersistentSortedMap<TK, TV>) super.remove(key) : this;
+    }
+
+    @Override
+    public PersistentSortedMap<TK, TV> replace(TK key, TV value) {
+        checkInRange(key);
+        return (PersistentSortedMap<TK, TV>) super.replace(key, value);
+    }
+
+    @Override
+    public PersistentSortedMap<TK, TV> clear() {
+        return (PersistentSortedMap<TK, TV>) super.clear();
+    }
+
+    @Override
+    public PersistentSortedMap<TK, TV> asOf(Instant instant) {
+        return (PersistentSortedMap<TK, TV>) super.asOf(instant);
+    }
+
+    @Override
+    public PersistentSortedMap<TK, TV> undo() {
+        return (PersistentSortedMap<TK, TV>) super.undo();
+    }
+
+    @Override
+    public PersistentSortedMap<TK, TV> redo() {
+        return (PersistentSortedMap<TK, TV>) super.redo();
+    }
+
+    @Override
+    public TV get(TK key) {
+        return inRange(key) ? super.get(key) : null;
+    }
+
+    @Override
+    public Stream<Revision<TV>> history(TK key, int fromVersion, int toVersion) {
+        var revisions = super.history(key, fromVersion, toVersion);
+        return inRange(key) ? revisions : Stream.empty();
+    }
+
+    @Override
+    public <A> PersistentSortedMap<TK, TV> withIndex(String name, Function<? super TV, ? extends A> attribute) {
+        return (PersistentSortedMap<TK, TV>) super.withIndex(name, attribute);
+    }
+
+    @Override
+    public Set<TK> keysWhere(String name, Object attribute) {
+        var keys = super.keysWhere(name, attribute);
+        if (fromKey != null || toKey != null) {
+            keys.removeIf(key -> !inRange(key));
+        }
+
+        return keys;
+    }
+
+    @Override
+    public int countWhere(String name, Object attribute) {
+        return fromKey == null && toKey == null ? super.countWhere(name, attribute) : keysWhere(name, attribute).size();
+    }
+
+    @Override
+    public Stream<Change<TK, TV>> diff(int fromVersion, int toVersion) {
+        return super.diff(fromVersion, toVersion).filter(change -> inRange(change.key()));
+    }
+
+    /**
+     * Attaches the aggregate to the history this handle shares, so every handle of it sees the aggregate
+     * and later writes keep it up to date. Re-attaching a name with the same monoid is a no-op.
+     */
+    public <A> PersistentSortedMap<TK, TV> withAggregate(String name, Monoid<? super TV, A> monoid) {
+        if (nodes.aggregates != null && nodes.aggregates.get(name) instanceof KeyedAggregate<?, ?, ?> existing) {
+            if (existing.monoid() != monoid) {
+                throw new IllegalArgumentException("Such an aggregate already exists!");
+            }
+            return this;
+        }
+
+        var aggregates = new KeyedAggregate<TK, TV, A>(comparator(), monoid);
+        var latest = nodes.maxModification.value;
+        aggregates.record(latest, buildAggregate(aggregates, latest));
+        attachAggregate(name, aggregates);
+        return this;
+    }
+
+    public <A> A aggregate(String name) {
+        return aggregate(name, fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    public <A> A aggregate(String name, TK fromKey, TK toKey) {
+        if (nodes.content.compareKeys(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+
+        checkBound(fromKey);
+        checkBound(toKey);
+        return aggregate(name, fromKey, inRange(fromKey), toKey, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A> A aggregate(String name, TK fromKey, boolean fromInclusive, TK toKey, boolean toInclusive) {
+        var aggregates = (KeyedAggregate<TK, TV, A>) attachedAggregate(name);
+        if (!aggregates.has(modificationCount)) {
+            aggregates.record(modificationCount, buildAggregate(aggregates, modificationCount));
+        }
+
+        return aggregates.query(aggregates.root(modificationCount), fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    private <A> KeyedAggregate.Node<TK, A> buildAggregate(KeyedAggregate<TK, TV, A> aggregates, int version) {
+        KeyedAggregate.Node<TK, A> root = null;
+        for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            var value = valueAt(node.data, version);
+            if (value != null) {
+                root = aggregates.put(root, node.key, value);
+            }
+        }
+
+        return root;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void annotate(PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes) {
+        for (var aggregates : nodes.aggregates.values()) {
+            annotate((KeyedAggregate<TK, TV, ?>) aggregates, nodes);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A> void annotate(KeyedAggregate<TK, TV, A> aggregates, PersistentContent<BinaryTree<TK, PersistentNode<TV>>> nodes) {
+        if (!aggregates.has(modificationCount)) {
+            return;
+        }
+
+        var clear = nodes.lastClear(modificationCount + 1);
+        var root = clear == modificationCount + 1 ? null : aggregates.root(modificationCount);
+        for (var id : nodes.changes.touched(modificationCount + 1)) {
+            var key = (TK) nodes.changes.keyOf(id);
+            var value = nodes.content.get(key).value(modificationCount + 1, clear);
+            root = value == null ? aggregates.remove(root, key) : aggregates.put(root, key, value);
+        }
+        aggregates.record(modificationCount + 1, root);
+    }
+
+    public TK firstKey() {
+        return key(firstEntry());
+    }
+
+    public TK lastKey() {
+        return key(lastEntry());
+    }
+
+    public Map.Entry<TK, TV> firstEntry() {
+        return forward(lowestNode(nodes.content));
+    }
+
+    public Map.Entry<TK, TV> lastEntry() {
+        return backward(highestNode(nodes.content));
+    }
+
+    public Map.Entry<TK, TV> floorEntry(TK key) {
+        return tooHigh(key) ? lastEntry() : backward(nodes.content.floorNode(key));
+    }
+
+    public Map.Entry<TK, TV> lowerEntry(TK key) {
+        return tooHigh(key) ? lastEntry() : backward(nodes.content.lowerNode(key));
+    }
+
+    public Map.Entry<TK, TV> ceilingEntry(TK key) {
+        return tooLow(key) ? firstEntry() : forward(nodes.content.ceilingNode(key));
+    }
+
+    public Map.Entry<TK, TV> higherEntry(TK key) {
+        return tooLow(key) ? firstEntry() : forward(nodes.content.higherNode(key));
+    }
+
+    public TK floorKey(TK key) {
+        var entry = floorEntry(key);
+        return entry == null ? null : entry.getKey();
+    }
+
+    public TK ceilingKey(TK key) {
+        var entry = ceilingEntry(key);
+        return entry == null ? null : entry.getKey();
+    }
+
+    public PersistentSortedMap<TK, TV> subMap(TK fromKey, TK toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    public PersistentSortedMap<TK, TV> subMap(TK fromKey, boolean fromInclusive, TK toKey, boolean toInclusive) {
+        if (nodes.content.compareKeys(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+
+        checkBound(fromKey);
+        checkBound(toKey);
+        return view(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    public PersistentSortedMap<TK, TV> headMap(TK toKey) {
+        return headMap(toKey, false);
+    }
+
+    public PersistentSortedMap<TK, TV> headMap(TK toKey, boolean inclusive) {
+        checkBound(toKey);
+        return view(fromKey, fromInclusive, toKey, inclusive);
+    }
+
+    public PersistentSortedMap<TK, TV> tailMap(TK fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    public PersistentSortedMap<TK, TV> tailMap(TK fromKey, boolean inclusive) {
+        checkBound(fromKey);
+        return view(fromKey, inclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public Set<TK> keySet() {
+        var result = new LinkedHashSet<TK>();
+        forEach(e -> result.add(e.getKey()));
+        return result;
+    }
+
+    @Override
+    public Set<TV> valueSet() {
+        var result = new LinkedHashSet<TV>();
+        forEach(e -> result.add(e.getValue()));
+        return result;
+    }
+
+    @Override
+    public Iterator<Map.Entry<TK, TV>> iterator() {
+        return new Iterator<>() {
+            private Node<TK, PersistentNode<TV>> next = firstVisible();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<TK, TV> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                var current = next;
+                next = nextVisible(current);
+                return Map.entry(current.key, valueAt(current.data, modificationCount));
+            }
+        };
+    }
+
+    @Override
+    protected Node<TK, PersistentNode<TV>> firstVisible() {
+        return visibleFrom(lowestNode(nodes.content));
+    }
+
+    @Override
+    protected Node<TK, PersistentNode<TV>> nextVisible(Node<TK, PersistentNode<TV>> node) {
+        return visibleFrom(BinaryTree.successor(node));
+    }
+
+    @Override
+    protected boolean sameView(PersistentMap<?, ?> other) {
+        return sameVersion(other) && other instanceof PersistentSortedMap<?, ?> sorted &&
+                Objects.equals(fromKey, sorted.fromKey) && fromInclusive == sorted.fromInclusive &&
+                Objects.equals(toKey, sorted.toKey) && toInclusive == sorted.toInclusive;
+    }
+
+    @Override
+    public int hashCode() {
+        return fromKey == null && toKey == null ? super.hashCode() : computeHash();
+    }
+
+    private PersistentSortedMap<TK, TV> view(TK fromKey, boolean fromInclusive, TK toKey, boolean toInclusive) {
+        var result = new PersistentSortedMap<>(nodes, 0, modificationCount, fromKey, fromInclusive, toKey, toInclusive);
+        result.count = result.countAt(modificationCount);
+        return result;
+    }
+
+    private Node<TK, PersistentNode<TV>> visibleFrom(Node<TK, PersistentNode<TV>> node) {
+        while (node != null && !tooHigh(node.key) && !exists(node.data, modificationCount)) {
+            node = BinaryTree.successor(node);
+        }
+
+        return node == null || tooHigh(node.key) ? null : node;
+    }
+
+    private Map.Entry<TK, TV> forward(Node<TK, PersistentNode<TV>> node) {
+        node = visibleFrom(node);
+        return node == null ? null : Map.entry(node.key, valueAt(node.data, modificationCount));
+    }
+
+    private Map.Entry<TK, TV> backward(Node<TK, PersistentNode<TV>> node) {
+        while (node != null && !tooLow(node.key) && !exists(node.data, modificationCount)) {
+            node = BinaryTree.predecessor(node);
+        }
+
+        return node == null || tooLow(node.key) ? null : Map.entry(node.key, valueAt(node.data, modificationCount));
+    }
+
+    private Node<TK, PersistentNode<TV>> lowestNode(BinaryTree<TK, PersistentNode<TV>> tree) {
+        if (fromKey == null) {
+            return tree.firstNode();
+        }
+
+        return fromInclusive ? tree.ceilingNode(fromKey) : tree.higherNode(fromKey);
+    }
+
+    private Node<TK, PersistentNode<TV>> highestNode(BinaryTree<TK, PersistentNode<TV>> tree) {
+        if (toKey == null) {
+            return tree.lastNode();
+        }
+
+        return toInclusive ? tree.floorNode(toKey) : tree.lowerNode(toKey);
+    }
+
+    private boolean tooLow(TK key) {
+        if (fromKey == null) {
+            return false;
+        }
+
+        var cmp = nodes.content.compareKeys(key, fromKey);
+        return cmp < 0 || (cmp == 0 && !fromInclusive);
+    }
+
+    private boolean tooHigh(TK key) {
+        if (toKey == null) {
+            return false;
+        }
+
+        var cmp = nodes.content.compareKeys(key, toKey);
+        return cmp > 0 || (cmp == 0 && !toInclusive);
+    }
+
+    private boolean inRange(TK key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    private void checkInRange(TK key) {
+        if (!inRange(key)) {
+            throw new IllegalArgumentException("Key out of range!");
+        }
+    }
+
+    private void checkBound(TK key) {
+        if ((fromKey != null && nodes.content.compareKeys(key, fromKey) < 0) ||
+                (toKey != null && nodes.content.compareKeys(key, toKey) > 0)) {
+            throw new IllegalArgumentException("Key out of range!");
+        }
+    }
+
+    private static <TK> TK key(Map.Entry<TK, ?> entry) {
+        if (entry == null) {
+            throw new NoSuchElementException();
+        }
+
+        return entry.getKey();
+    }
+}
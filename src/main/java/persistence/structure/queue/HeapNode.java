@@ -0,0 +1,109 @@
+package persistence.structure.queue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+record HeapNode<T>(int rank, T item, Forest<T> extras, Forest<T> children) {
+    record Forest<T>(HeapNode<T> tree, Forest<T> rest) {
+    }
+
+    static <T> Forest<T> insert(Forest<T> heap, T item, Comparator<? super T> comparator) {
+        if (heap != null && heap.rest != null && heap.tree.rank == heap.rest.tree.rank) {
+            return new Forest<>(skewLink(item, heap.tree, heap.rest.tree, comparator), heap.rest.rest);
+        }
+
+        return new Forest<>(leaf(item), heap);
+    }
+
+    static <T> Forest<T> meld(Forest<T> a, Forest<T> b, Comparator<? super T> comparator) {
+        return mergeTrees(normalize(a, comparator), normalize(b, comparator), comparator);
+    }
+
+    static <T> HeapNode<T> min(Forest<T> heap, Comparator<? super T> comparator) {
+        if (heap == null) {
+            return null;
+        }
+
+        var min = heap.tree;
+        for (var trees = heap.rest; trees != null; trees = trees.rest) {
+            if (comparator.compare(trees.tree.item, min.item) < 0) {
+                min = trees.tree;
+            }
+        }
+
+        return min;
+    }
+
+    static <T> Forest<T> withoutMin(Forest<T> heap, HeapNode<T> min, Comparator<? super T> comparator) {
+        var before = new ArrayList<HeapNode<T>>();
+        var trees = heap;
+        for (; trees.tree != min; trees = trees.rest) {
+            before.add(trees.tree);
+        }
+
+        var rest = trees.rest;
+        for (var i = before.size() - 1; i >= 0; i--) {
+            rest = new Forest<>(before.get(i), rest);
+        }
+
+        Forest<T> children = null;
+        for (var child = min.children; child != null; child = child.rest) {
+            children = new Forest<>(child.tree, children);
+        }
+
+        var result = meld(children, rest, comparator);
+        for (var extra = min.extras; extra != null; extra = extra.rest) {
+            result = insert(result, extra.tree.item, comparator);
+        }
+
+        return result;
+    }
+
+    private static <T> HeapNode<T> leaf(T item) {
+        return new HeapNode<>(0, item, null, null);
+    }
+
+    private static <T> HeapNode<T> link(HeapNode<T> a, HeapNode<T> b, Comparator<? super T> comparator) {
+        return comparator.compare(a.item, b.item) <= 0
+                ? new HeapNode<>(a.rank + 1, a.item, a.extras, new Forest<>(b, a.children))
+                : new HeapNode<>(b.rank + 1, b.item, b.extras, new Forest<>(a, b.children));
+    }
+
+    private static <T> HeapNode<T> skewLink(T item, HeapNode<T> a, HeapNode<T> b, Comparator<? super T> comparator) {
+        var linked = link(a, b, comparator);
+        return comparator.compare(item, linked.item) <= 0
+                ? new HeapNode<>(linked.rank, item, new Forest<>(leaf(linked.item), linked.extras), linked.children)
+                : new HeapNode<>(linked.rank, linked.item, new Forest<>(leaf(item), linked.extras), linked.children);
+    }
+
+    private static <T> Forest<T> insertTree(HeapNode<T> tree, Forest<T> trees, Comparator<? super T> comparator) {
+        while (trees != null && trees.tree.rank <= tree.rank) {
+            tree = link(tree, trees.tree, comparator);
+            trees = trees.rest;
+        }
+
+        return new Forest<>(tree, trees);
+    }
+
+    private static <T> Forest<T> normalize(Forest<T> heap, Comparator<? super T> comparator) {
+        return heap == null ? null : insertTree(heap.tree, heap.rest, comparator);
+    }
+
+    private static <T> Forest<T> mergeTrees(Forest<T> a, Forest<T> b, Comparator<? super T> comparator) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        if (a.tree.rank < b.tree.rank) {
+            return new Forest<>(a.tree, mergeTrees(a.rest, b, comparator));
+        }
+        if (b.tree.rank < a.tree.rank) {
+            return new Forest<>(b.tree, mergeTrees(a, b.rest, comparator));
+        }
+
+        return insertTree(link(a.tree, b.tree, comparator), mergeTrees(a.rest, b.rest, comparator), comparator);
+    }
+}
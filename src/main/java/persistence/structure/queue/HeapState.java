@@ -0,0 +1,67 @@
+package persistence.structure.queue;
+
+import persistence.base.HistoryStats;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Set;
+
+public final class HeapState<T> {
+    private final HeapNode.Forest<T> heap;
+    private final HeapNode<T> min;
+    private final int size;
+
+    HeapState(HeapNode.Forest<T> heap, int size, Comparator<? super T> comparator) {
+        this.heap = heap;
+        this.size = size;
+        min = HeapNode.min(heap, comparator);
+    }
+
+    HeapNode.Forest<T> heap() {
+        return heap;
+    }
+
+    HeapNode<T> min() {
+        return min;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    long retainedBytes(Set<Object> seen) {
+        if (!seen.add(this)) {
+            return 0;
+        }
+
+        var bytes = HistoryStats.objectBytes(2, 4);
+        var pending = new ArrayDeque<HeapNode.Forest<T>>();
+        if (heap != null) {
+            pending.push(heap);
+        }
+        while (!pending.isEmpty()) {
+            var trees = pending.pop();
+            if (!seen.add(trees)) {
+                continue;
+            }
+
+            bytes += HistoryStats.objectBytes(2, 0);
+            if (trees.rest() != null) {
+                pending.push(trees.rest());
+            }
+
+            var tree = trees.tree();
+            if (seen.add(tree)) {
+                bytes += HistoryStats.objectBytes(3, 4);
+                if (tree.extras() != null) {
+                    pending.push(tree.extras());
+                }
+                if (tree.children() != null) {
+                    pending.push(tree.children());
+                }
+            }
+        }
+
+        return bytes;
+    }
+}
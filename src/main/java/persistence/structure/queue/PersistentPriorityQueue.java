@@ -0,0 +1,186 @@
+package persistence.structure.queue;
+
+import persistence.base.BasePersistentCollection;
+import persistence.base.HistoryStats;
+import persistence.base.IUndoRedo;
+import persistence.base.ModificationCount;
+import persistence.base.PersistentContent;
+
+import java.time.Instant;
+import java.util.*;
+
+public class PersistentPriorityQueue<T> extends BasePersistentCollection<Integer, T, List<HeapState<T>>> implements Iterable<T>, IUndoRedo<PersistentPriorityQueue<T>> {
+    private final Comparator<? super T> comparator;
+
+    @SuppressWarnings("unchecked")
+    public PersistentPriorityQueue() {
+        this((Comparator<? super T>) Comparator.naturalOrder());
+    }
+
+    public PersistentPriorityQueue(Comparator<? super T> comparator) {
+        this.comparator = Objects.requireNonNull(comparator);
+        var states = new ArrayList<HeapState<T>>();
+        states.add(new HeapState<>(null, 0, comparator));
+        nodes = new PersistentContent<>(states, new ModificationCount(modificationCount));
+    }
+
+    private PersistentPriorityQueue(PersistentContent<List<HeapState<T>>> nodes, int count, int modificationCount,
+                                    Comparator<? super T> comparator) {
+        super(nodes, count, modificationCount);
+        this.comparator = comparator;
+    }
+
+    @Override
+    protected PersistentContent<List<HeapState<T>>> reassembleNodes() {
+        var newContent = new PersistentContent<List<HeapState<T>>>(
+                new ArrayList<>(nodes.content.subList(0, modificationCount + 1)),
+                new ModificationCount(modificationCount));
+        newContent.branchOf(nodes, modificationCount);
+        return newContent;
+    }
+
+    @Override
+    protected PersistentPriorityQueue<T> forked(PersistentContent<List<HeapState<T>>> nodes) {
+        return new PersistentPriorityQueue<>(nodes, count, modificationCount, comparator);
+    }
+
+    @Override
+    protected int recalculateCount(int modificationStep) {
+        return nodes.content.get(modificationStep).size();
+    }
+
+    private HeapState<T> state() {
+        return nodes.content.get(modificationCount);
+    }
+
+    private PersistentPriorityQueue<T> commit(HeapState<T> next) {
+        var content = nodes.maxModification.value > modificationCount ? branch() : nodes;
+        content.update(states -> states.add(next));
+        return new PersistentPriorityQueue<>(content, next.size(), modificationCount + 1, comparator);
+    }
+
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    public PersistentPriorityQueue<T> insert(T item) {
+        return commit(new HeapState<>(HeapNode.insert(state().heap(), item, comparator), count + 1, comparator));
+    }
+
+    public T peek() {
+        var min = state().min();
+        return min == null ? null : min.item();
+    }
+
+    public PersistentPriorityQueue<T> poll() {
+        var state = state();
+        return state.min() == null ? this : commit(new HeapState<>(
+                HeapNode.withoutMin(state.heap(), state.min(), comparator), count - 1, comparator));
+    }
+
+    public PersistentPriorityQueue<T> merge(PersistentPriorityQueue<T> other) {
+        if (other.count == 0) {
+            return this;
+        }
+
+        if (!comparator.equals(other.comparator)) {
+            throw new IllegalArgumentException("Queues must use the same comparator!");
+        }
+
+        return commit(new HeapState<>(HeapNode.meld(state().heap(), other.state().heap(), comparator), count + other.count,
+                comparator));
+    }
+
+    @Override
+    public T get(Integer rank) {
+        if (rank < 0 || rank >= count) {
+            throw new IndexOutOfBoundsException(rank);
+        }
+
+        var items = iterator();
+        for (var i = 0; i < rank; i++) {
+            items.next();
+        }
+
+        return items.next();
+    }
+
+    @Override
+    public PersistentPriorityQueue<T> replace(Integer rank, T item) {
+        if (rank < 0 || rank >= count) {
+            throw new IndexOutOfBoundsException(rank);
+        }
+
+        HeapNode.Forest<T> skipped = null;
+        var heap = state().heap();
+        for (var i = 0; i < rank; i++) {
+            var min = HeapNode.min(heap, comparator);
+            skipped = HeapNode.insert(skipped, min.item(), comparator);
+            heap = HeapNode.withoutMin(heap, min, comparator);
+        }
+
+        heap = HeapNode.meld(HeapNode.withoutMin(heap, HeapNode.min(heap, comparator), comparator), skipped, comparator);
+        return commit(new HeapState<>(HeapNode.insert(heap, item, comparator), count, comparator));
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private HeapNode.Forest<T> heap = state().heap();
+            private HeapNode<T> min = state().min();
+
+            @Override
+            public boolean hasNext() {
+                return min != null;
+            }
+
+            @Override
+            public T next() {
+                if (min == null) {
+                    throw new NoSuchElementException();
+                }
+
+                var item = min.item();
+                heap = HeapNode.withoutMin(heap, min, comparator);
+                min = HeapNode.min(heap, comparator);
+                return item;
+            }
+        };
+    }
+
+    @Override
+    public HistoryStats historyStats() {
+        var collector = new HistoryStats.Collector().list(nodes.content.size()).entries(nodes.content.size());
+        var seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var state : nodes.content) {
+            collector.bytes(state.retainedBytes(seen));
+        }
+
+        return collector.build(count);
+    }
+
+    public PersistentPriorityQueue<T> asOf(Instant instant) {
+        var version = versionAt(instant);
+        return version == modificationCount ? this : new PersistentPriorityQueue<>(nodes, countAt(version), version, comparator);
+    }
+
+    @Override
+    public PersistentPriorityQueue<T> undo() {
+        return modificationCount == startModificationCount ? this : new PersistentPriorityQueue<>(nodes,
+                countAt(modificationCount - 1), modificationCount - 1, comparator);
+    }
+
+    @Override
+    public PersistentPriorityQueue<T> redo() {
+        return modificationCount == nodes.maxModification.value ? this : new PersistentPriorityQueue<>(nodes,
+                countAt(modificationCount + 1), modificationCount + 1, comparator);
+    }
+}
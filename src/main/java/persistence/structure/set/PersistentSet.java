@@ -0,0 +1,341 @@
+package persistence.structure.set;
+
+import persistence.base.*;
+import persistence.base.tree.BinaryTree;
+import persistence.metrics.Metrics;
+
+import java.time.Instant;
+import java.util.*;
+
+public class PersistentSet<T> extends BasePersistentCollection<T, Boolean, BinaryTree<T, PersistentNode<Boolean>>> implements Iterable<T>, IUndoRedo<PersistentSet<T>> {
+    public PersistentSet() {
+        nodes = new PersistentContent<>(new BinaryTree<>(), new ModificationCount(modificationCount));
+        nodes.changes.recordCount(modificationCount, 0);
+        nodes.changes.recordHash(modificationCount, 0);
+    }
+
+    private PersistentSet(PersistentContent<BinaryTree<T, PersistentNode<Boolean>>> nodes, int count, int modificationCount) {
+        super(nodes, count, modificationCount);
+    }
+
+    @Override
+    protected PersistentContent<BinaryTree<T, PersistentNode<Boolean>>> reassembleNodes() {
+        var newContent = new PersistentContent<>(
+                new BinaryTree<T, PersistentNode<Boolean>>(nodes.content.comparator()),
+                new ModificationCount(modificationCount)
+        );
+
+        BitSet touched = null;
+        if (nodes.changes.covers(modificationCount)) {
+            touched = new BitSet();
+            for (var id : nodes.changes.touched(modificationCount, nodes.maxModification.value)) {
+                touched.set(id);
+            }
+        }
+
+        for (var entry : nodes.content) {
+            var node = entry.getValue();
+            var id = nodes.changes.findId(entry.getKey());
+            if (touched != null && id >= 0 && !touched.get(id)) {
+                node.shared = true;
+                newContent.content.insert(entry.getKey(), node);
+                continue;
+            }
+
+            var newNode = node.truncated(modificationCount);
+            if (newNode != null) {
+                newContent.content.insert(entry.getKey(), newNode);
+            }
+        }
+
+        newContent.changes = nodes.changes.truncated(modificationCount);
+        newContent.branchOf(nodes, modificationCount);
+        newContent.changes.recordCount(modificationCount, count);
+        return newContent;
+    }
+
+    @Override
+    protected PersistentSet<T> forked(PersistentContent<BinaryTree<T, PersistentNode<Boolean>>> nodes) {
+        return new PersistentSet<>(nodes, count, modificationCount);
+    }
+
+    private void implUpdate(PersistentContent<BinaryTree<T, PersistentNode<Boolean>>> content, int modificationCount,
+                            Collection<T> added, Collection<T> removed) {
+        content.update(c -> {
+            for (var item : added) {
+                var node = writable(c, item);
+                if (node == null) {
+                    c.insert(item, new PersistentNode<>(modificationCount + 1, true));
+                } else {
+                    node.update(modificationCount + 1, true);
+                }
+                content.changes.touchKey(modificationCount + 1, item);
+            }
+
+            for (var item : removed) {
+                writable(c, item).update(modificationCount + 1, false);
+                content.changes.touchKey(modificationCount + 1, item);
+            }
+        });
+    }
+
+    private static <T> PersistentNode<Boolean> writable(BinaryTree<T, PersistentNode<Boolean>> content, T item) {
+        var node = content.get(item);
+        if (node != null && node.shared) {
+            node = node.copy();
+            content.insert(item, node);
+        }
+
+        return node;
+    }
+
+    private PersistentSet<T> update(Collection<T> added, Collection<T> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return this;
+        }
+
+        var newCount = count + added.size() - removed.size();
+        var content = nodes;
+        if (nodes.maxModification.value > modificationCount) {
+            content = branch();
+        }
+
+        implUpdate(content, modificationCount, added, removed);
+        content.changes.recordCount(modificationCount + 1, newCount);
+        if (content.changes.hasHash(modificationCount)) {
+            var hash = content.changes.hash(modificationCount);
+            for (var item : added) {
+                hash += Objects.hashCode(item);
+            }
+            for (var item : removed) {
+                hash -= Objects.hashCode(item);
+            }
+            content.changes.recordHash(modificationCount + 1, hash);
+        }
+
+        return new PersistentSet<>(content, newCount, modificationCount + 1);
+    }
+
+    private static boolean isPresent(PersistentNode<Boolean> node, int modificationStep) {
+        return node != null && Boolean.TRUE.equals(node.value(modificationStep));
+    }
+
+    public boolean contains(T item) {
+        return isPresent(nodes.content.get(item), modificationCount);
+    }
+
+    @Override
+    public Boolean get(T item) {
+        return contains(item);
+    }
+
+    public PersistentSet<T> add(T item) {
+        return contains(item) ? this : update(List.of(item), List.of());
+    }
+
+    public PersistentSet<T> remove(T item) {
+        return contains(item) ? update(List.of(), List.of(item)) : this;
+    }
+
+    @Override
+    public PersistentSet<T> replace(T item, Boolean present) {
+        return present ? add(item) : remove(item);
+    }
+
+    public PersistentSet<T> clear() {
+        var removed = new ArrayList<T>();
+        forEach(removed::add);
+        return update(List.of(), removed);
+    }
+
+    public PersistentSet<T> union(PersistentSet<T> other) {
+        var added = new ArrayList<T>();
+        if (other.nodes == nodes) {
+            if (other.modificationCount == modificationCount) {
+                return this;
+            }
+
+            for (var item : changedSince(other)) {
+                var node = nodes.content.get(item);
+                if (isPresent(node, other.modificationCount) && !isPresent(node, modificationCount)) {
+                    added.add(item);
+                }
+            }
+        } else {
+            for (var item : other) {
+                if (!contains(item)) {
+                    added.add(item);
+                }
+            }
+        }
+
+        return update(added, List.of());
+    }
+
+    public PersistentSet<T> intersection(PersistentSet<T> other) {
+        var removed = new ArrayList<T>();
+        if (other.nodes == nodes) {
+            if (other.modificationCount == modificationCount) {
+                return this;
+            }
+
+            for (var item : changedSince(other)) {
+                var node = nodes.content.get(item);
+                if (isPresent(node, modificationCount) && !isPresent(node, other.modificationCount)) {
+                    removed.add(item);
+                }
+            }
+        } else {
+            for (var item : this) {
+                if (!other.contains(item)) {
+                    removed.add(item);
+                }
+            }
+        }
+
+        return update(List.of(), removed);
+    }
+
+    public PersistentSet<T> difference(PersistentSet<T> other) {
+        var removed = new ArrayList<T>();
+        if (other.nodes == nodes) {
+            for (var entry : nodes.content) {
+                if (isPresent(entry.getValue(), modificationCount) && isPresent(entry.getValue(), other.modificationCount)) {
+                    removed.add(entry.getKey());
+                }
+            }
+        } else if (other.count < count) {
+            for (var item : other) {
+                if (contains(item)) {
+                    removed.add(item);
+                }
+            }
+        } else {
+            for (var item : this) {
+                if (other.contains(item)) {
+                    removed.add(item);
+                }
+            }
+        }
+
+        return update(List.of(), removed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> changedSince(PersistentSet<T> other) {
+        var low = Math.min(modificationCount, other.modificationCount);
+        var high = Math.max(modificationCount, other.modificationCount);
+        if (!nodes.changes.covers(low)) {
+            return nodes.content.toList().stream().map(Map.Entry::getKey).toList();
+        }
+
+        var result = new ArrayList<T>();
+        for (var id : nodes.changes.touched(low, high)) {
+            result.add((T) nodes.changes.keyOf(id));
+        }
+
+        return result;
+    }
+
+    public Iterator<T> iterator() {
+        var entries = nodes.content.toList();
+        if (Metrics.enabled()) {
+            Metrics.sink().materialized(getClass(), entries.size());
+        }
+
+        return entries
+                .stream()
+                .filter(e -> isPresent(e.getValue(), modificationCount))
+                .map(Map.Entry::getKey)
+                .iterator();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof PersistentSet<?> other) || count != other.count) {
+            return false;
+        }
+
+        if (sameVersion(other)) {
+            return true;
+        }
+
+        if (hashCode() != other.hashCode()) {
+            return false;
+        }
+
+        try {
+            for (var item : other) {
+                if (!contains((T) item)) {
+                    return false;
+                }
+            }
+        } catch (ClassCastException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if (nodes.changes.hasHash(modificationCount)) {
+            return nodes.changes.hash(modificationCount);
+        }
+
+        var hash = 0;
+        for (var item : this) {
+            hash += Objects.hashCode(item);
+        }
+
+        nodes.changes.recordHash(modificationCount, hash);
+        return hash;
+    }
+
+    @Override
+    public HistoryStats historyStats() {
+        var collector = new HistoryStats.Collector().tree(nodes.content);
+        for (var node = nodes.content.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            collector.node(node.data);
+        }
+
+        return collector.build(count);
+    }
+
+    public PersistentSet<T> asOf(Instant instant) {
+        var version = versionAt(instant);
+        return version == modificationCount ? this : new PersistentSet<>(nodes, countAt(version), version);
+    }
+
+    public PersistentSet<T> undo() {
+        return modificationCount == startModificationCount ? this : new PersistentSet<>(nodes,
+                countAt(modificationCount - 1), modificationCount - 1);
+    }
+
+    public PersistentSet<T> redo() {
+        return modificationCount == nodes.maxModification.value ? this : new PersistentSet<>(nodes,
+                countAt(modificationCount + 1), modificationCount + 1);
+    }
+
+    @Override
+    protected int recalculateCount(int modificationStep) {
+        var recorded = nodes.changes.count(modificationStep);
+        if (recorded >= 0) {
+            return recorded;
+        }
+
+        return (int) nodes.content.toList()
+                .stream()
+                .filter(e -> isPresent(e.getValue(), modificationStep))
+                .count();
+    }
+
+    public int size() {
+        return count;
+    }
+}
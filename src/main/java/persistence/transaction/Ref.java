@@ -0,0 +1,11 @@
+package persistence.transaction;
+
+public final class Ref<C> {
+    final TransactionalStore store;
+    final int id;
+
+    Ref(TransactionalStore store, int id) {
+        this.store = store;
+        this.id = id;
+    }
+}
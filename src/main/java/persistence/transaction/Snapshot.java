@@ -0,0 +1,54 @@
+package persistence.transaction;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public final class Snapshot {
+    static final Snapshot EMPTY = new Snapshot(0, new Object[0], new long[0]);
+
+    private final long version;
+    private final Object[] values;
+    private final long[] modified;
+
+    private Snapshot(long version, Object[] values, long[] modified) {
+        this.version = version;
+        this.values = values;
+        this.modified = modified;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <C> C get(Ref<C> ref) {
+        return (C) values[ref.id];
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    long modified(Ref<?> ref) {
+        return modified[ref.id];
+    }
+
+    Snapshot register(Object value) {
+        var newValues = Arrays.copyOf(values, values.length + 1);
+        var newModified = Arrays.copyOf(modified, modified.length + 1);
+        newValues[values.length] = value;
+        newModified[modified.length] = version;
+        return new Snapshot(version, newValues, newModified);
+    }
+
+    Snapshot next(Iterable<Map.Entry<Ref<?>, Object>> writes) {
+        var newValues = values.clone();
+        var newModified = modified.clone();
+        for (var write : writes) {
+            newValues[write.getKey().id] = write.getValue();
+            newModified[write.getKey().id] = version + 1;
+        }
+
+        return new Snapshot(version + 1, newValues, newModified);
+    }
+}
@@ -0,0 +1,150 @@
+package persistence.transaction;
+
+import persistence.base.BasePersistentCollection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+public final class Transaction {
+    private final TransactionalStore store;
+    private final Snapshot snapshot;
+    private final HashSet<Ref<?>> reads = new HashSet<>();
+    private final LinkedHashMap<Ref<?>, Write> writes = new LinkedHashMap<>();
+
+    Transaction(TransactionalStore store, Snapshot snapshot) {
+        this.store = store;
+        this.snapshot = snapshot;
+    }
+
+    public long version() {
+        return snapshot.version();
+    }
+
+    /**
+     * Returns the ref's value as this transaction sees it. A committed value is shared with every other
+     * snapshot, so it must only be read; writes go through {@link #update}. Reading back a ref this
+     * transaction has updated forks a private copy of it, which costs as much as a branch.
+     */
+    @SuppressWarnings("unchecked")
+    public <C> C get(Ref<C> ref) {
+        checkStore(ref);
+        reads.add(ref);
+        var write = writes.get(ref);
+        return write == null ? snapshot.get(ref) : (C) write.preview(snapshot.get(ref));
+    }
+
+    /**
+     * Replaces the ref's value on commit. The value must not have been written into the committed history,
+     * as {@code tx.get(ref).add(...)} would do; such a value is rejected.
+     */
+    public <C> void set(Ref<C> ref, C value) {
+        checkStore(ref);
+        if (value instanceof BasePersistentCollection<?, ?, ?> collection
+                && snapshot.get(ref) instanceof BasePersistentCollection<?, ?, ?> committed
+                && collection != committed && collection.sharesHistory(committed)) {
+            throw new IllegalArgumentException("Such a value was written into committed history!");
+        }
+
+        reads.add(ref);
+        writes.put(ref, new Write(value));
+    }
+
+    /**
+     * Stages the updater, which is applied to the committed value when the transaction commits. It may run
+     * more than once, so it must have no side effects beyond the value it returns.
+     */
+    @SuppressWarnings("unchecked")
+    public <C> void update(Ref<C> ref, UnaryOperator<C> updater) {
+        checkStore(ref);
+        reads.add(ref);
+        writes.computeIfAbsent(ref, r -> new Write()).stage((UnaryOperator<Object>) updater);
+    }
+
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    boolean isValid(Snapshot latest) {
+        for (var ref : reads) {
+            if (latest.modified(ref) > snapshot.version()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    Map<Ref<?>, Object> apply(Snapshot latest) {
+        var values = new LinkedHashMap<Ref<?>, Object>();
+        writes.forEach((ref, write) -> values.put(ref, write.apply(latest.get(ref))));
+        return values;
+    }
+
+    boolean isReadOnly() {
+        return writes.isEmpty();
+    }
+
+    private void checkStore(Ref<?> ref) {
+        if (ref.store != store) {
+            throw new IllegalArgumentException("Such a reference does not belong to this store!");
+        }
+    }
+
+    private static final class Write {
+        private final boolean replaced;
+        private final Object value;
+        private final List<UnaryOperator<Object>> updaters = new ArrayList<>();
+        private Object preview;
+
+        Write() {
+            this(false, null);
+        }
+
+        Write(Object value) {
+            this(true, value);
+        }
+
+        private Write(boolean replaced, Object value) {
+            this.replaced = replaced;
+            this.value = value;
+        }
+
+        void stage(UnaryOperator<Object> updater) {
+            updaters.add(updater);
+            if (preview != null) {
+                preview = updater.apply(preview);
+            }
+        }
+
+        Object preview(Object committed) {
+            var base = replaced ? value : committed;
+            if (updaters.isEmpty()) {
+                return base;
+            }
+
+            if (preview == null) {
+                // the staged updaters write in place, so they must not run on a value other snapshots read
+                var current = base instanceof BasePersistentCollection<?, ?, ?> collection ? collection.fork() : base;
+                for (var updater : updaters) {
+                    current = updater.apply(current);
+                }
+                preview = current;
+            }
+
+            return preview;
+        }
+
+        Object apply(Object committed) {
+            var current = replaced ? value : committed;
+            for (var updater : updaters) {
+                current = updater.apply(current);
+            }
+
+            return current;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package persistence.transaction;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class TransactionalStore {
+    private final StampedLock lock = new StampedLock();
+    private volatile Snapshot current = Snapshot.EMPTY;
+
+    public <C> Ref<C> ref(C initialValue) {
+        return exclusive(() -> {
+            var ref = new Ref<C>(this, current.size());
+            current = current.register(initialValue);
+            return ref;
+        });
+    }
+
+    /**
+     * Returns the latest snapshot. Commits append to the histories its values share, so while other threads
+     * commit, read it through {@link #read} instead.
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public <R> R read(Function<Snapshot, R> reader) {
+        var stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                var result = reader.apply(current);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return reader.apply(current);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Snapshot transaction(Consumer<Transaction> body) {
+        while (true) {
+            var transaction = new Transaction(this, current);
+            try {
+                body.accept(transaction);
+            } catch (RuntimeException e) {
+                // a body that raced a commit to one of its refs may have failed on a torn read
+                if (transaction.isValid(current)) {
+                    throw e;
+                }
+                continue;
+            }
+
+            if (transaction.isReadOnly()) {
+                if (transaction.isValid(current)) {
+                    return transaction.snapshot();
+                }
+                continue;
+            }
+
+            var committed = exclusive(() -> {
+                if (!transaction.isValid(current)) {
+                    return null;
+                }
+
+                current = current.next(transaction.apply(current).entrySet());
+                return current;
+            });
+
+            if (committed != null) {
+                return committed;
+            }
+        }
+    }
+
+    private <R> R exclusive(Supplier<R> action) {
+        var stamp = lock.writeLock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -5,9 +5,12 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import persistence.base.tree.BinaryTree;
 
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class BinaryTreeTest {
     private static BinaryTree<Integer, Integer> tree;
@@ -64,4 +67,75 @@ public class BinaryTreeTest {
             assertEquals(keys[i], list.get(i).getKey());
         }
     }
+
+    @Test
+    public void deleteTest() {
+        var localTree = new BinaryTree<Integer, Integer>();
+        for (int i = 0; i < 100; i++) {
+            localTree.insert(i, i);
+        }
+
+        for (int i = 0; i < 100; i += 3) {
+            assertTrue(localTree.delete(i));
+        }
+
+        assertFalse(localTree.delete(0));
+        assertFalse(localTree.delete(1000));
+
+        var list = localTree.toList();
+        var expected = IntStream.range(0, 100).filter(i -> i % 3 != 0).boxed().toList();
+        assertEquals(expected, list.stream().map(Map.Entry::getKey).toList());
+
+        assertEquals(2, localTree.findNearestLess(3));
+        assertNull(localTree.get(99));
+        assertEquals(98, localTree.findNearestLess(1000));
+    }
+
+    @Test
+    public void deleteKeepsNodesTest() {
+        var localTree = new BinaryTree<Integer, Integer>();
+        for (int i = 0; i < 64; i++) {
+            localTree.insert(i, i);
+        }
+
+        var nodes = IntStream.range(0, 64).mapToObj(localTree::find).toList();
+        var visited = new ArrayList<Integer>();
+        for (var node = localTree.firstNode(); node != null; node = BinaryTree.successor(node)) {
+            visited.add(node.key);
+            if (node.key % 2 == 0 && node.key + 1 < 64) {
+                // removing the successor of the current node must not shift the iteration
+                localTree.delete(node.key + 1);
+            }
+        }
+
+        assertEquals(IntStream.range(0, 64).filter(i -> i % 2 == 0).boxed().toList(), visited);
+        for (var i = 0; i < 64; i += 2) {
+            assertSame(nodes.get(i), localTree.find(i));
+            assertEquals(i, nodes.get(i).key);
+            assertEquals(i, nodes.get(i).data);
+        }
+
+        for (var i = 0; i < 64; i += 4) {
+            localTree.delete(i);
+        }
+        for (var i = 2; i < 64; i += 4) {
+            assertSame(nodes.get(i), localTree.find(i));
+            assertEquals(i, nodes.get(i).data);
+        }
+        assertEquals(16, localTree.size());
+    }
+
+    @Test
+    public void pruneTest() {
+        var localTree = new BinaryTree<Integer, Integer>();
+        for (int i = 50; i > 0; i--) {
+            localTree.insert(i, i % 2 == 0 ? i : null);
+        }
+
+        var pruned = localTree.prune((key, value) -> value == null);
+
+        assertEquals(25, pruned);
+        assertEquals(25, localTree.toList().size());
+        assertTrue(localTree.toList().stream().allMatch(e -> e.getKey() % 2 == 0));
+    }
 }
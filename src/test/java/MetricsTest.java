@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.Test;
+import persistence.metrics.Metrics;
+import persistence.metrics.MetricsRegistry;
+import persistence.structure.array.PersistentArray;
+import persistence.structure.map.PersistentMap;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+    @Test
+    public void registryTest() {
+        var registry = new MetricsRegistry();
+        Metrics.install(registry);
+        try {
+            var arr = new PersistentArray<Integer>().add(1).add(2).add(3);
+            var branch = arr.undo().undo().add(5);
+            new PersistentMap<Integer, Integer>().add(1, 1).iterator();
+
+            assertEquals(5, registry.counter("versions.created"));
+            assertEquals(1, registry.timerSnapshot("PersistentArray.reassembly").count());
+            assertEquals(2, registry.counter("PersistentArray.reassembly.discarded"));
+            assertEquals(2, registry.timerSnapshot("PersistentArray.recount").count());
+            assertEquals(1, registry.counter("PersistentMap.materialized"));
+            assertEquals(1, registry.counter("PersistentMap.materialized.items"));
+            assertTrue(Arrays.stream(registry.historyLengthHistogram()).sum() >= 5);
+            assertEquals(2, branch.count);
+        } finally {
+            Metrics.reset();
+        }
+
+        new PersistentArray<Integer>().add(1);
+        assertFalse(Metrics.enabled());
+        assertEquals(5, registry.counter("versions.created"));
+    }
+
+    @Test
+    public void viewMaterialisationTest() {
+        var registry = new MetricsRegistry();
+        Metrics.install(registry);
+        try {
+            var map = new PersistentMap<Integer, Integer>();
+            for (var i = 0; i < 100; i++) {
+                map = map.add(i, i * 2);
+            }
+
+            var arr = map.toPersistentArray();
+            var list = map.toPersistentLinkedList();
+            for (var i = 0; i < 100; i++) {
+                assertEquals(i * 2, arr.get(i));
+                assertEquals(i * 2, list.get(i));
+            }
+
+            assertEquals(2, registry.counter("CollectionView.materialized"));
+            assertEquals(200, registry.counter("CollectionView.materialized.items"));
+        } finally {
+            Metrics.reset();
+        }
+    }
+}
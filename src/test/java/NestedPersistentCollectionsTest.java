@@ -1,8 +1,10 @@
 import org.junit.jupiter.api.Test;
+import persistence.base.Path;
 import persistence.structure.array.PersistentArray;
 import persistence.structure.map.PersistentMap;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class NestedPersistentCollectionsTest {
     @Test
@@ -43,4 +45,26 @@ public class NestedPersistentCollectionsTest {
 
         assertEquals(24, res.getIn(0, 0, 42));
     }
+
+    @Test
+    public void testUpdateInPath() {
+        var outerArray = new PersistentArray<PersistentMap<String, PersistentArray<Integer>>>();
+        var innerMap = new PersistentMap<String, PersistentArray<Integer>>();
+        var innerInnerArray = new PersistentArray<Integer>();
+
+        outerArray = outerArray.add(innerMap.add("counter", innerInnerArray.add(1)));
+
+        var path = Path.of(0, "counter", 0);
+        var first = outerArray.updateIn(path, v -> (Integer) v + 1);
+        var second = first.updateIn(path, v -> (Integer) v + 1);
+
+        assertEquals(1, outerArray.getIn(path));
+        assertEquals(2, first.getIn(path));
+        assertEquals(3, second.getIn(path));
+        assertEquals(5, second.setIn(path, 5).getIn(0, "counter", 0));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> second.getIn(Path.of(0, "counter", 0, 0)));
+        assertThrows(IndexOutOfBoundsException.class, () -> second.setIn(Path.of(0, "counter", 0, 0), 1));
+        assertThrows(IllegalArgumentException.class, Path::of);
+    }
 }
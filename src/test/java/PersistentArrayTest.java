@@ -1,8 +1,28 @@
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import persistence.base.SnapshotCache;
+import persistence.base.aggregate.Monoid;
+import persistence.base.change.Change;
+import persistence.base.change.ChangeType;
+import persistence.base.change.Revision;
+import persistence.base.codec.HistoryCodec;
+import persistence.base.codec.HistorySegment;
 import persistence.structure.array.PersistentArray;
+import persistence.structure.list.PersistentLinkedList;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class PersistentArrayTest {
     @Test
@@ -200,4 +220,307 @@ public class PersistentArrayTest {
         assertEquals(6, l1.get(2));
         assertEquals(8, l1.get(3));
     }
+
+    @Test
+    public void diffTest() {
+        var arr0 = new PersistentArray<Integer>();
+
+        var arr1 = arr0.add(3);
+        var arr2 = arr1.add(5);
+        var arr3 = arr2.add(6);
+        var arr4 = arr3.replace(0, 9);
+        var arr5 = arr4.remove(1);
+
+        assertEquals(List.of(
+                new Change<>(ChangeType.Added, 1, null, 5),
+                new Change<>(ChangeType.Added, 2, null, 6)
+        ), arr3.diff(1, 3).toList());
+
+        assertEquals(List.of(new Change<>(ChangeType.Replaced, 0, 3, 9)), arr5.diff(3, 4).toList());
+
+        assertEquals(List.of(
+                new Change<>(ChangeType.Replaced, 1, 5, 6),
+                new Change<>(ChangeType.Removed, 2, 6, null)
+        ), arr5.diff(4, 5).toList());
+
+        assertEquals(List.of(
+                new Change<>(ChangeType.Replaced, 1, 6, 5),
+                new Change<>(ChangeType.Added, 2, null, 6)
+        ), arr5.diff(5, 4).toList());
+
+        assertEquals(List.of(), arr5.diff(5, 5).toList());
+        assertThrows(IllegalArgumentException.class, () -> arr5.diff(0, 6));
+
+        var arr6 = arr5.add(7);
+        assertEquals(7, arr6.get(2));
+        assertEquals(List.of(new Change<>(ChangeType.Added, 2, null, 7)), arr6.diff(5, 6).toList());
+    }
+
+    @Test
+    public void branchSharingTest() {
+        var arr0 = new PersistentArray<Integer>();
+
+        var arr1 = arr0.add(1).add(2).add(3);
+        var arr2 = arr1.replace(0, 10);
+        var arr3 = arr1.replace(1, 20);
+        var arr4 = arr2.replace(1, 30);
+        var arr5 = arr3.replace(2, 40).remove(0);
+
+        assertEquals(List.of(10, 2, 3), toList(arr2));
+        assertEquals(List.of(1, 20, 3), toList(arr3));
+        assertEquals(List.of(10, 30, 3), toList(arr4));
+        assertEquals(List.of(20, 40), toList(arr5));
+        assertEquals(List.of(1, 2, 3), toList(arr1));
+
+        assertEquals(3, arr5.undo().count);
+        assertEquals(List.of(1, 20, 40), toList(arr5.undo()));
+    }
+
+    private static List<Integer> toList(PersistentArray<Integer> array) {
+        var result = new ArrayList<Integer>();
+        array.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    public void equalsHashCodeTest() {
+        var arr0 = new PersistentArray<Integer>();
+        var arr1 = arr0.add(1).add(2).add(3);
+        var arr2 = arr1.replace(1, 5);
+        var arr3 = arr2.remove(2);
+        var arr4 = arr3.insert(0, 7);
+
+        assertEquals(List.of(1, 2, 3).hashCode(), arr1.hashCode());
+        assertEquals(List.of(1, 5, 3).hashCode(), arr2.hashCode());
+        assertEquals(List.of(1, 5).hashCode(), arr3.hashCode());
+        assertEquals(List.of(7, 1, 5).hashCode(), arr4.hashCode());
+        assertEquals(List.of().hashCode(), arr4.clearAll().hashCode());
+
+        var other = new PersistentArray<Integer>().add(1).add(5).add(3);
+        assertEquals(arr2, other);
+        assertEquals(arr2.hashCode(), other.hashCode());
+        assertNotEquals(arr1, other);
+        assertEquals(arr1, arr2.undo());
+        assertEquals(arr3, arr4.remove(0));
+        assertEquals(arr1, other.toPersistentLinkedList().replace(1, 2).toPersistentArray());
+    }
+
+    @Test
+    public void mergeTest() {
+        var base = new PersistentArray<Integer>().add(1).add(2).add(3);
+        var left = base.replace(0, 10).add(4);
+        var right = base.replace(0, 20).replace(2, 30);
+
+        var merged = PersistentArray.merge(base, left, right, (index, b, l, r) -> Math.max(l, r));
+        assertEquals(List.of(20, 2, 30, 4), toList(merged));
+        assertEquals(List.of(10, 2, 3, 4), toList(left));
+
+        var shorter = base.remove(2);
+        assertEquals(List.of(10, 2, 3, 4), toList(PersistentArray.merge(base, left, shorter, (index, b, l, r) -> l)));
+        assertEquals(List.of(1, 2), toList(PersistentArray.merge(base, base.replace(0, 1), shorter, (index, b, l, r) -> l)));
+    }
+
+    @Test
+    public void aggregateTest() {
+        var sum = Monoid.<Integer, Integer>of(0, x -> x, Integer::sum);
+        var arr0 = new PersistentArray<Integer>().add(1).add(2).add(3);
+        var arr1 = arr0.withAggregate("sum", sum).add(4);
+        var arr2 = arr1.replace(0, 10).remove(3);
+        var arr3 = arr2.insert(1, 5);
+
+        assertEquals(10, (Integer) arr1.aggregate("sum", 0, 4));
+        assertEquals(15, (Integer) arr2.aggregate("sum", 0, 3));
+        assertEquals(5, (Integer) arr2.aggregate("sum", 1, 3));
+        assertEquals(20, (Integer) arr3.aggregate("sum", 0, 4));
+        assertEquals(0, (Integer) arr3.aggregate("sum", 2, 2));
+        assertEquals(6, (Integer) arr3.undo().undo().undo().aggregate("sum", 0, 3));
+        assertEquals(3, (Integer) arr0.undo().aggregate("sum", 0, 2));
+
+        var branch = arr2.undo().replace(1, 100);
+        assertEquals(117, (Integer) branch.aggregate("sum", 0, 4));
+        assertEquals(15, (Integer) arr2.aggregate("sum", 0, 3));
+        assertEquals(0, (Integer) arr3.clearAll().aggregate("sum", 0, 0));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> arr2.aggregate("sum", 0, 4));
+        assertThrows(IllegalStateException.class, () -> new PersistentArray<Integer>().add(1).aggregate("sum", 0, 1));
+        assertThrows(IllegalStateException.class, () -> arr2.aggregate("max", 0, 1));
+
+        var max = Monoid.<Integer, Integer>of(Integer.MIN_VALUE, x -> x, Math::max);
+        assertSame(arr0, arr0.withAggregate("sum", sum));
+        assertThrows(IllegalArgumentException.class, () -> arr0.withAggregate("sum", max));
+        assertEquals(6, (Integer) arr0.aggregate("sum", 0, 3));
+
+        var older = arr3.undo().withAggregate("max", max);
+        var newer = arr3.replace(0, 50);
+        assertEquals(50, (Integer) newer.aggregate("max", 0, 4));
+        assertEquals(10, (Integer) older.aggregate("max", 0, 3));
+        assertEquals(60, (Integer) newer.aggregate("sum", 0, 4));
+    }
+
+    @Test
+    public void historyTest() {
+        var arr2 = new PersistentArray<Integer>().add(1).add(2);
+        var arr4 = arr2.replace(0, 5).remove(0);
+
+        assertEquals(List.of(new Revision<>(1, 1), new Revision<>(3, 5), new Revision<>(4, 2)), arr4.history(0).toList());
+        assertEquals(List.of(new Revision<>(2, 2), new Revision<Integer>(4, null)), arr4.history(1).toList());
+        assertEquals(List.of(new Revision<>(3, 5)), arr4.history(0, 2, 3).toList());
+        assertEquals(List.of(new Revision<>(1, 1)), arr2.history(0).toList());
+
+        var lazy = arr4.toPersistentLinkedList().toPersistentArray();
+        assertEquals(List.of(2), lazy.history(0).map(Revision::value).toList());
+
+        assertThrows(IndexOutOfBoundsException.class, () -> arr4.history(2));
+        assertThrows(IllegalArgumentException.class, () -> arr4.history(0, 0, 9));
+    }
+
+    @Test
+    public void historyStatsTest() {
+        var arr1 = new PersistentArray<Integer>().add(1).add(2).add(3);
+        var arr2 = arr1.replace(0, 5);
+        var stats = arr2.historyStats();
+
+        assertEquals(3, stats.liveElements());
+        assertEquals(4, stats.historyEntries());
+        assertEquals(3, stats.nodes());
+        assertArrayEquals(new long[]{2, 1}, stats.depthHistogram());
+        assertEquals(stats.retainedBytes(), arr2.footprint());
+        assertTrue(arr2.replace(1, 7).replace(1, 8).footprint() > stats.retainedBytes());
+        assertEquals(0, arr1.toPersistentLinkedList().toPersistentArray().historyStats().historyEntries());
+    }
+
+    @Test
+    public void sharedConvertedViewTest() throws Exception {
+        var list = new PersistentLinkedList<Integer>();
+        for (var i = 0; i < 1000; i++) {
+            list = list.addLast(i);
+        }
+        var lazy = list.toPersistentArray();
+        assertEquals(0, lazy.historyStats().historyEntries());
+        assertEquals(999, lazy.get(999));
+        assertEquals(0, lazy.historyStats().historyEntries());
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var results = new ArrayList<Future<Integer>>();
+            for (var t = 0; t < 8; t++) {
+                var value = t * 100;
+                results.add(executor.submit(() -> {
+                    assertNull(lazy.timestamp());
+                    return lazy.get(value);
+                }));
+            }
+            for (var t = 0; t < 8; t++) {
+                assertEquals(t * 100, results.get(t).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1000, lazy.historyStats().historyEntries());
+        assertEquals(-1, lazy.replace(500, -1).get(500));
+    }
+
+    @Test
+    public void clearHistoryTest() {
+        var arr2 = new PersistentArray<Integer>().add(1).add(2);
+        var entries = arr2.historyStats().historyEntries();
+        var arr3 = arr2.clearAll();
+        assertEquals(entries, arr3.historyStats().historyEntries());
+        var arr4 = arr3.add(7);
+
+        assertEquals(List.of(), toList(arr3));
+        assertEquals(List.of(7), toList(arr4));
+        assertEquals(List.of(1, 2), toList(arr3.undo()));
+        assertEquals(2, arr2.diff(2, 3).count());
+        assertEquals(List.of(new Revision<>(2, 2), new Revision<Integer>(3, null)), arr4.history(1).toList());
+        assertEquals(List.of(1, 5), toList(arr2.replace(1, 5)));
+    }
+
+    @Test
+    public void compactHistoryTest() {
+        var versions = new ArrayList<PersistentArray<Integer>>();
+        var arr = new PersistentArray<Integer>().add(0).add(-1);
+        for (var i = 1; i <= 1000; i++) {
+            arr = arr.replace(0, i % 7 == 0 ? -i * 1000 : i);
+            versions.add(arr);
+        }
+
+        var history = arr.history(0).toList();
+        var footprint = arr.footprint();
+        assertEquals(896, arr.compactHistory(HistoryCodec.INTEGERS));
+
+        assertTrue(arr.footprint() * 4 < footprint);
+        assertEquals(history, arr.history(0).toList());
+        assertEquals(1001, arr.historyStats().historyEntries() - 1);
+        for (var i = 0; i < versions.size(); i++) {
+            assertEquals(versions.get(i).get(0), (i + 1) % 7 == 0 ? -(i + 1) * 1000 : i + 1);
+        }
+
+        var branch = versions.get(499).replace(1, 5);
+        assertEquals(List.of(500, 5), toList(branch));
+        assertEquals(List.of(1, 2, 3), branch.history(0, 3, 5).map(Revision::value).toList());
+        assertEquals(1000, toList(arr).get(0));
+    }
+
+    @Test
+    public void snapshotCacheTest() {
+        var cache = new SnapshotCache(2, 100);
+        var latest = new PersistentArray<Integer>().add(1).add(2).add(3).replace(0, 4).replace(1, 5);
+        latest.cacheSnapshots(cache);
+        var old = latest.undo().undo();
+
+        assertEquals(1, old.get(0));
+        assertEquals(0, cache.size());
+        assertEquals(2, old.get(1));
+        assertEquals(1, cache.size());
+        assertEquals(3, old.get(2));
+        assertEquals(1, cache.hits());
+        assertEquals(List.of(1, 2, 3), toList(old));
+        assertEquals(2, cache.hits());
+
+        assertEquals(List.of(4, 5, 3), toList(latest));
+        assertEquals(List.of(4, 2, 3), toList(latest.undo()));
+        assertEquals(2, cache.size());
+        assertEquals(6, cache.weight());
+        assertEquals(List.of(1, 2, 3), toList(old));
+        assertEquals(2, cache.hits());
+
+        var branch = old.replace(2, 9);
+        assertEquals(List.of(1, 2, 9), toList(branch));
+        assertEquals(9, branch.get(2));
+        assertEquals(5, latest.get(1));
+    }
+
+    @Test
+    public void spillHistoryTest(@TempDir Path directory) {
+        var versions = new ArrayList<PersistentArray<Integer>>();
+        var arr = new PersistentArray<Integer>().add(0).add(-1);
+        for (var i = 1; i <= 500; i++) {
+            arr = arr.replace(0, i);
+            versions.add(arr);
+        }
+
+        var history = arr.history(0).toList();
+        var footprint = arr.footprint();
+        var segment = HistorySegment.open(directory.resolve("history.segment"));
+        try (segment) {
+            assertEquals(400, arr.spillHistory(402, HistoryCodec.INTEGERS, segment));
+            assertTrue(segment.size() > 0);
+            assertTrue(arr.footprint() * 3 < footprint);
+            assertEquals(0, arr.spillHistory(402, HistoryCodec.INTEGERS, segment));
+
+            assertEquals(history, arr.history(0).toList());
+            for (var i = 0; i < versions.size(); i++) {
+                assertEquals(i + 1, versions.get(i).get(0));
+            }
+            assertEquals(-1, versions.get(10).get(1));
+
+            var branch = versions.get(99).replace(1, 5);
+            assertEquals(List.of(100, 5), toList(branch));
+            assertEquals(List.of(500, -1), toList(arr));
+        }
+
+        assertThrows(IllegalStateException.class, () -> segment.read(0, 1));
+    }
 }
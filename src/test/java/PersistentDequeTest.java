@@ -0,0 +1,214 @@
+import org.junit.jupiter.api.Test;
+import persistence.structure.deque.PersistentDeque;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentDequeTest {
+    @Test
+    public void bothEndsTest() {
+        var d0 = new PersistentDeque<Integer>();
+        var d1 = d0.addLast(2).addLast(3).addFirst(1);
+        var d2 = d1.removeFirst();
+        var d3 = d2.removeLast();
+
+        assertIterableEquals(List.of(1, 2, 3), d1);
+        assertIterableEquals(List.of(2, 3), d2);
+        assertIterableEquals(List.of(2), d3);
+        assertEquals(1, d1.peekFirst());
+        assertEquals(3, d1.peekLast());
+        assertEquals(2, d3.peekFirst());
+        assertEquals(2, d3.peekLast());
+        assertNull(d0.peekFirst());
+        assertSame(d0, d0.removeLast());
+
+        assertEquals(2, d1.get(1));
+        assertIterableEquals(List.of(1, 5, 3), d1.replace(1, 5));
+        assertThrows(IndexOutOfBoundsException.class, () -> d1.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> d1.replace(-1, 0));
+    }
+
+    @Test
+    public void oneSidedGrowthTest() {
+        var rearHeavy = new PersistentDeque<Integer>();
+        var frontHeavy = new PersistentDeque<Integer>();
+        for (var i = 0; i < 40; i++) {
+            rearHeavy = rearHeavy.addLast(i);
+            frontHeavy = frontHeavy.addFirst(i);
+
+            // every push may move half of one side across, so each index has to survive the split
+            for (var j = 0; j <= i; j++) {
+                assertEquals(j, rearHeavy.get(j));
+                assertEquals(i - j, frontHeavy.get(j));
+            }
+            assertEquals(0, rearHeavy.peekFirst());
+            assertEquals(i, rearHeavy.peekLast());
+            assertEquals(i, frontHeavy.peekFirst());
+            assertEquals(0, frontHeavy.peekLast());
+        }
+
+        var replaced = rearHeavy;
+        for (var i = 0; i < 40; i++) {
+            replaced = replaced.replace(i, -i);
+        }
+        for (var i = 0; i < 40; i++) {
+            assertEquals(-i, replaced.get(i));
+            assertEquals(i, rearHeavy.get(i));
+        }
+    }
+
+    @Test
+    public void drainTest() {
+        var deque = new PersistentDeque<Integer>();
+        for (var i = 0; i < 20; i++) {
+            deque = deque.addLast(i);
+        }
+        var full = deque;
+
+        var fromFront = full;
+        for (var i = 0; i < 20; i++) {
+            assertEquals(i, fromFront.peekFirst());
+            assertEquals(19, fromFront.peekLast());
+            fromFront = fromFront.removeFirst();
+        }
+        assertTrue(fromFront.isEmpty());
+        assertNull(fromFront.peekFirst());
+        assertNull(fromFront.peekLast());
+        assertSame(fromFront, fromFront.removeFirst());
+        assertSame(fromFront, fromFront.removeLast());
+        assertFalse(fromFront.iterator().hasNext());
+
+        var fromBack = full;
+        for (var i = 19; i >= 0; i--) {
+            assertEquals(0, fromBack.peekFirst());
+            assertEquals(i, fromBack.peekLast());
+            fromBack = fromBack.removeLast();
+        }
+        assertEquals(0, fromBack.size());
+
+        var pinched = full;
+        for (var i = 0; i < 10; i++) {
+            assertEquals(i, pinched.peekFirst());
+            assertEquals(19 - i, pinched.peekLast());
+            pinched = pinched.removeFirst().removeLast();
+        }
+        assertTrue(pinched.isEmpty());
+        assertIterableEquals(List.of(7), pinched.addFirst(7));
+        assertIterableEquals(List.of(7), pinched.addLast(7));
+        assertEquals(20, full.size());
+    }
+
+    @Test
+    public void oldVersionWritesTest() {
+        var base = new PersistentDeque<Integer>();
+        for (var i = 0; i < 1000; i++) {
+            base = base.addLast(i);
+        }
+        var latest = base.addLast(1000);
+
+        // every write from the same old version must see the same structure, with nothing left to rebalance
+        for (var i = 0; i < 200; i++) {
+            var front = base.removeFirst();
+            var back = base.removeLast().addFirst(-i);
+            assertEquals(1, front.peekFirst());
+            assertEquals(999, front.peekLast());
+            assertEquals(-i, back.peekFirst());
+            assertEquals(998, back.peekLast());
+            assertEquals(500, front.get(499));
+            assertEquals(499, back.get(500));
+        }
+
+        assertEquals(1000, base.size());
+        assertEquals(1001, latest.size());
+        assertEquals(0, base.peekFirst());
+        assertEquals(999, base.peekLast());
+    }
+
+    @Test
+    public void randomVersionsTest() {
+        var random = new Random(7);
+        var versions = new ArrayList<PersistentDeque<Integer>>();
+        var expected = new ArrayList<List<Integer>>();
+        versions.add(new PersistentDeque<>());
+        expected.add(List.of());
+
+        for (var step = 0; step < 3000; step++) {
+            var from = random.nextInt(versions.size());
+            var deque = versions.get(from);
+            var items = new ArrayList<>(expected.get(from));
+            switch (random.nextInt(5)) {
+                case 0 -> {
+                    deque = deque.addFirst(step);
+                    items.add(0, step);
+                }
+                case 1 -> {
+                    deque = deque.addLast(step);
+                    items.add(step);
+                }
+                case 2 -> {
+                    deque = deque.removeFirst();
+                    if (!items.isEmpty()) {
+                        items.remove(0);
+                    }
+                }
+                case 3 -> {
+                    deque = deque.removeLast();
+                    if (!items.isEmpty()) {
+                        items.remove(items.size() - 1);
+                    }
+                }
+                default -> {
+                    if (!items.isEmpty()) {
+                        var index = random.nextInt(items.size());
+                        deque = deque.replace(index, -step);
+                        items.set(index, -step);
+                    }
+                }
+            }
+
+            versions.add(deque);
+            expected.add(items);
+            assertEquals(items.size(), deque.size());
+            if (!items.isEmpty()) {
+                var index = random.nextInt(items.size());
+                assertEquals(items.get(index), deque.get(index));
+                assertEquals(items.get(0), deque.peekFirst());
+                assertEquals(items.get(items.size() - 1), deque.peekLast());
+            }
+        }
+
+        for (var i = 0; i < versions.size(); i += 97) {
+            assertIterableEquals(expected.get(i), versions.get(i));
+        }
+    }
+
+    @Test
+    public void branchIsolationTest() {
+        var d0 = new PersistentDeque<String>().addLast("a").addLast("b").addLast("c");
+        var d1 = d0.removeFirst();
+        var back = d1.undo();
+
+        var front = back.addFirst("x");
+        var rear = back.addLast("y");
+        var both = front.addLast("z");
+
+        assertIterableEquals(List.of("a", "b", "c"), d0);
+        assertIterableEquals(List.of("b", "c"), d1);
+        assertIterableEquals(List.of("a", "b", "c"), back);
+        assertIterableEquals(List.of("x", "a", "b", "c"), front);
+        assertIterableEquals(List.of("a", "b", "c", "y"), rear);
+        assertIterableEquals(List.of("x", "a", "b", "c", "z"), both);
+        assertIterableEquals(List.of("b", "c"), back.redo());
+        assertIterableEquals(List.of("a", "b", "c"), rear.undo());
+        assertSame(rear, rear.redo());
+        assertEquals(back, front.undo());
+
+        var trimmed = back.removeLast().removeFirst();
+        assertIterableEquals(List.of("b"), trimmed);
+        assertIterableEquals(List.of("x", "a", "b", "c"), front);
+        assertIterableEquals(List.of("a", "b", "c", "y"), rear);
+    }
+}
@@ -1,6 +1,12 @@
 import org.junit.jupiter.api.Test;
+import persistence.base.change.Change;
+import persistence.base.change.ChangeType;
+import persistence.structure.array.PersistentArray;
 import persistence.structure.list.PersistentLinkedList;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class PersistentLinkedListTest {
@@ -249,4 +255,147 @@ public class PersistentLinkedListTest {
         assertEquals(2, arr0.get(2));
         assertThrows(IndexOutOfBoundsException.class, () -> arr0.get(3));
     }
+
+    @Test
+    public void diffTest() {
+        var l0 = new PersistentLinkedList<Integer>();
+        var l1 = l0.addLast(1);
+        var l2 = l1.addLast(2);
+        var l3 = l2.addFirst(0);
+        var l4 = l3.replace(2, 5);
+        var l5 = l4.removeLast();
+        var l6 = l5.removeFirst();
+
+        assertEquals(List.of(new Change<>(ChangeType.Added, 0, null, 0)), l3.diff(2, 3).toList());
+        assertEquals(List.of(new Change<>(ChangeType.Replaced, 2, 2, 5)), l4.diff(3, 4).toList());
+        assertEquals(List.of(new Change<>(ChangeType.Removed, 2, 5, null)), l5.diff(4, 5).toList());
+        assertEquals(List.of(
+                new Change<>(ChangeType.Removed, 0, 0, null),
+                new Change<>(ChangeType.Removed, 1, 1, null),
+                new Change<>(ChangeType.Removed, 2, 2, null)
+        ), l6.diff(3, 0).toList());
+        assertEquals(List.of(
+                new Change<>(ChangeType.Removed, 0, 0, null),
+                new Change<>(ChangeType.Removed, 2, 5, null)
+        ), l6.diff(4, 6).toList());
+
+        var cleared = l3.clear();
+        assertEquals(3, cleared.diff(3, 4).count());
+
+        var converted = new PersistentArray<Integer>().add(1).add(2).toPersistentLinkedList();
+        assertEquals(List.of(new Change<>(ChangeType.Added, 2, null, 3)),
+                converted.addLast(3).diff(2, 3).toList());
+    }
+
+    @Test
+    public void conversionBranchingTest() {
+        var arr = new PersistentArray<Integer>().add(1).add(2).add(3);
+        var l0 = arr.toPersistentLinkedList();
+        assertTrue(l0.contains(2));
+
+        var l1 = l0.addLast(4);
+        var l2 = l0.addFirst(0);
+        var l3 = l1.removeFirst();
+
+        assertEquals(4, l1.count);
+        assertEquals(4, l1.get(3));
+        assertEquals(0, l2.get(0));
+        assertEquals(3, l2.get(3));
+        assertEquals(4, l2.count);
+        assertEquals(2, l3.get(0));
+        assertEquals(3, l3.count);
+        assertEquals(1, l3.undo().get(0));
+
+        var back = l2.toPersistentArray();
+        assertEquals(4, back.count);
+        assertEquals(0, back.get(0));
+        assertEquals(3, back.get(3));
+        assertEquals(9, back.replace(0, 9).get(0));
+        assertEquals(0, l2.get(0));
+        assertEquals(1, arr.get(0));
+    }
+
+    @Test
+    public void equalsHashCodeTest() {
+        var l0 = new PersistentLinkedList<Integer>();
+        var l1 = l0.addLast(2).addLast(3).addFirst(1);
+        var l2 = l1.replace(1, 5);
+        var l3 = l2.removeFirst();
+        var l4 = l3.removeLast();
+
+        assertEquals(List.of(1, 2, 3).hashCode(), l1.hashCode());
+        assertEquals(List.of(1, 5, 3).hashCode(), l2.hashCode());
+        assertEquals(List.of(5, 3).hashCode(), l3.hashCode());
+        assertEquals(List.of(5).hashCode(), l4.hashCode());
+        assertEquals(List.of().hashCode(), l4.clear().hashCode());
+
+        var other = new PersistentArray<Integer>().add(5).add(3).toPersistentLinkedList();
+        assertEquals(l3, other);
+        assertEquals(other, l3);
+        assertEquals(l3.hashCode(), other.hashCode());
+        assertNotEquals(l2, other);
+        assertEquals(l1, l2.undo());
+    }
+
+    @Test
+    public void checkpointTest() {
+        var list = new PersistentLinkedList<Integer>().addLast(0).checkpointEvery(8);
+        assertSame(list, list.checkpointEvery(8));
+        var configured = list;
+        assertThrows(IllegalStateException.class, () -> configured.checkpointEvery(4));
+        var expected = new ArrayList<List<Integer>>();
+        var current = new ArrayList<>(List.of(0));
+        expected.add(List.copyOf(current));
+        for (var i = 1; i <= 100; i++) {
+            switch (i % 7) {
+                case 0, 3 -> {
+                    list = list.addFirst(i);
+                    current.add(0, i);
+                }
+                case 1, 4 -> {
+                    list = list.addLast(i);
+                    current.add(i);
+                }
+                case 2 -> {
+                    list = list.removeFirst();
+                    current.remove(0);
+                }
+                case 5 -> {
+                    list = list.replace(current.size() / 2, -i);
+                    current.set(current.size() / 2, -i);
+                }
+                default -> {
+                    list = list.removeLast();
+                    current.remove(current.size() - 1);
+                }
+            }
+            expected.add(List.copyOf(current));
+        }
+        list = list.clear().addLast(1000);
+        expected.add(List.of());
+        expected.add(List.of(1000));
+
+        var old = list;
+        for (var version = expected.size() - 1; version >= 0; version--, old = old.undo()) {
+            var items = expected.get(version);
+            assertEquals(items.size(), old.size());
+            for (var i = 0; i < items.size(); i++) {
+                assertEquals(items.get(i), old.get(i));
+            }
+            assertEquals(items, toList(old));
+        }
+
+        var branch = list.undo().undo().undo().addFirst(-1);
+        var items = new ArrayList<>(expected.get(expected.size() - 4));
+        items.add(0, -1);
+        assertEquals(items, toList(branch));
+        assertEquals(items.get(items.size() - 1), branch.get(items.size() - 1));
+        assertEquals(expected.get(expected.size() - 4), toList(branch.undo()));
+    }
+
+    private static List<Integer> toList(PersistentLinkedList<Integer> list) {
+        var result = new ArrayList<Integer>();
+        list.toPersistentArray().forEach(result::add);
+        return result;
+    }
 }
@@ -1,7 +1,31 @@
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import persistence.base.SnapshotCache;
+import persistence.base.change.Change;
+import persistence.base.change.ChangeType;
+import persistence.base.change.Revision;
+import persistence.base.change.VersionChange;
+import persistence.base.codec.HistoryCodec;
+import persistence.base.codec.HistorySegment;
 import persistence.structure.map.PersistentMap;
 
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -223,4 +247,598 @@ public class PersistentMapTest {
         assertEquals(5, arr.get(2));
         assertEquals(6, arr.get(3));
     }
+
+    @Test
+    public void pruneTest() {
+        var d0 = new PersistentMap<Integer, Integer>();
+        var d1 = d0.add(3, 3);
+        var d2 = d1.add(4, 4);
+        var d3 = d2.remove(3);
+        var d4 = d3.add(5, 5);
+
+        assertThrows(IllegalArgumentException.class, () -> d4.prune(5));
+        assertThrows(IllegalArgumentException.class, () -> d4.prune(-1));
+        assertEquals(0, d4.prune(2));
+        assertEquals(1, d4.prune(3));
+
+        assertNull(d4.get(3));
+        assertEquals(4, d4.get(4));
+        assertEquals(5, d4.get(5));
+        assertEquals(Set.of(4, 5), d4.keySet());
+
+        var d5 = d4.add(3, 6);
+        assertEquals(6, d5.get(3));
+    }
+
+    @Test
+    public void diffTest() {
+        var d0 = new PersistentMap<Integer, Integer>();
+        var d1 = d0.add(3, 3);
+        var d2 = d1.add(4, 4);
+        var d3 = d2.replace(3, 5);
+        var d4 = d3.remove(4);
+        var d5 = d2.add(6, 6);
+
+        assertEquals(List.of(new Change<>(ChangeType.Added, 4, null, 4)), d2.diff(1, 2).toList());
+
+        assertEquals(Set.of(
+                new Change<>(ChangeType.Replaced, 3, 3, 5),
+                new Change<>(ChangeType.Removed, 4, 4, null)
+        ), d4.diff(2, 4).collect(Collectors.toSet()));
+
+        assertEquals(List.of(new Change<>(ChangeType.Added, 3, null, 5)), d4.diff(0, 4).toList());
+
+        assertEquals(List.of(new Change<>(ChangeType.Added, 6, null, 6)), d5.diff(2, 3).toList());
+        assertEquals(Set.of(
+                new Change<>(ChangeType.Added, 3, null, 3),
+                new Change<>(ChangeType.Added, 4, null, 4),
+                new Change<>(ChangeType.Added, 6, null, 6)
+        ), d5.diff(0, 3).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void branchSharingTest() {
+        var d0 = new PersistentMap<Integer, Integer>();
+        var d1 = d0.add(1, 1).add(2, 2).add(3, 3);
+        var d2 = d1.replace(1, 10);
+        var d3 = d1.replace(2, 20);
+        var d4 = d2.replace(2, 30);
+        var d5 = d3.remove(3);
+
+        assertEquals(Set.of(10, 2, 3), d2.valueSet());
+        assertEquals(Set.of(1, 20, 3), d3.valueSet());
+        assertEquals(Set.of(10, 30, 3), d4.valueSet());
+        assertEquals(Set.of(1, 2, 3), d1.valueSet());
+        assertEquals(2, d5.count);
+        assertEquals(3, d5.undo().count);
+        assertEquals(2, d5.undo().redo().count);
+    }
+
+    @Test
+    public void conversionIsolationTest() {
+        var d0 = new PersistentMap<Integer, Integer>();
+        var d1 = d0.add(3, 3).add(4, 4).add(5, 5);
+        var d2 = d1.remove(4);
+
+        var arr = d2.toPersistentArray();
+        assertEquals(2, arr.count);
+        assertEquals(3, arr.get(0));
+        assertEquals(5, arr.get(1));
+
+        var changed = arr.replace(0, 30).add(6);
+        assertEquals(List.of(30, 5, 6), List.of(changed.get(0), changed.get(1), changed.get(2)));
+        assertEquals(3, d2.get(3));
+        assertEquals(3, arr.get(0));
+        assertEquals(4, d1.get(4));
+    }
+
+    @Test
+    public void equalsHashCodeTest() {
+        var d0 = new PersistentMap<Integer, String>();
+        var d1 = d0.add(1, "a").add(2, "b");
+        var d2 = d1.replace(1, "c");
+        var d3 = d2.remove(2);
+
+        assertEquals(Map.of(1, "a", 2, "b").hashCode(), d1.hashCode());
+        assertEquals(Map.of(1, "c", 2, "b").hashCode(), d2.hashCode());
+        assertEquals(Map.of(1, "c").hashCode(), d3.hashCode());
+        assertEquals(0, d3.clear().hashCode());
+
+        var other = new PersistentMap<Integer, String>().add(2, "b").add(1, "c");
+        assertEquals(d2, other);
+        assertEquals(d2.hashCode(), other.hashCode());
+        assertNotEquals(d1, other);
+        assertEquals(d1, d2.undo());
+
+        var keyed = new PersistentMap<PersistentMap<Integer, String>, Integer>().add(d2, 1);
+        assertEquals(1, keyed.get(other));
+    }
+
+    @Test
+    public void mergeTest() {
+        var base = new PersistentMap<String, Integer>().add("a", 1).add("b", 2).add("c", 3);
+        var left = base.replace("a", 10).add("d", 4);
+        var right = base.replace("a", 20).remove("b").replace("c", 30);
+
+        var merged = PersistentMap.merge(base, left, right, (key, b, l, r) -> l + r);
+        assertEquals(30, merged.get("a"));
+        assertNull(merged.get("b"));
+        assertEquals(30, merged.get("c"));
+        assertEquals(4, merged.get("d"));
+        assertEquals(3, merged.count);
+        assertEquals(Map.of("a", 30, "c", 30, "d", 4).hashCode(), merged.hashCode());
+
+        assertEquals(10, left.get("a"));
+        assertEquals(2, left.get("b"));
+
+        var unrelated = new PersistentMap<String, Integer>().add("a", 1).add("b", 2).add("c", 3).add("e", 5);
+        var mergedUnrelated = PersistentMap.merge(base, left, unrelated, (key, b, l, r) -> l);
+        assertEquals(5, mergedUnrelated.get("e"));
+        assertEquals(10, mergedUnrelated.get("a"));
+        assertSame(left, PersistentMap.merge(base, left, base, (key, b, l, r) -> l));
+    }
+
+    @Test
+    public void historyTest() {
+        var d1 = new PersistentMap<String, Integer>().add("a", 1).add("b", 2);
+        var d3 = d1.replace("a", 10);
+        var d4 = d3.remove("a");
+
+        assertEquals(List.of(new Revision<>(1, 1), new Revision<>(3, 10), new Revision<Integer>(4, null)),
+                d4.history("a").toList());
+        assertEquals(List.of(new Revision<>(3, 10)), d4.history("a", 2, 3).toList());
+        assertEquals(List.of(new Revision<>(1, 1), new Revision<>(3, 10)), d3.history("a").toList());
+        assertEquals(List.of(new Revision<>(2, 2)), d4.history("b").toList());
+        assertEquals(List.of(), d4.history("c").toList());
+
+        var branch = d1.replace("a", 5);
+        assertEquals(List.of(new Revision<>(1, 1), new Revision<>(3, 5)), branch.history("a").toList());
+        assertEquals(3, d4.history("a").count());
+
+        assertThrows(IllegalArgumentException.class, () -> d4.history("a", 3, 2));
+        assertThrows(IllegalArgumentException.class, () -> d4.history("a", 0, 10));
+    }
+
+    private static class ManualClock extends Clock {
+        private long millis;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+
+    @Test
+    public void asOfTest() {
+        var clock = new ManualClock();
+        clock.millis = 1000;
+        var d0 = new PersistentMap<String, Integer>();
+        d0.recordTimestamps(clock);
+        clock.millis = 2000;
+        var d1 = d0.add("a", 1);
+        clock.millis = 3000;
+        var d2 = d1.add("b", 2);
+
+        var past = d2.asOf(Instant.ofEpochMilli(2500));
+        assertEquals(1, past.get("a"));
+        assertNull(past.get("b"));
+        assertEquals(1, past.count);
+        assertSame(d2, d2.asOf(Instant.ofEpochMilli(3000)));
+        assertSame(d1, d1.asOf(Instant.ofEpochMilli(5000)));
+        assertEquals(Instant.ofEpochMilli(3000), d2.timestamp());
+        assertEquals(0, d2.asOf(Instant.ofEpochMilli(1999)).count);
+
+        clock.millis = 4000;
+        var branch = d1.add("c", 3);
+        clock.millis = 3500;
+        var next = branch.add("d", 4);
+        assertEquals(Instant.ofEpochMilli(4000), branch.timestamp());
+        assertEquals(Instant.ofEpochMilli(4000), next.timestamp());
+        assertEquals(Instant.ofEpochMilli(3000), d2.timestamp());
+        assertNull(next.asOf(Instant.ofEpochMilli(3999)).get("c"));
+        assertEquals(3, next.asOf(Instant.ofEpochMilli(4000)).get("c"));
+
+        assertThrows(IllegalArgumentException.class, () -> d2.asOf(Instant.ofEpochMilli(999)));
+        assertThrows(IllegalStateException.class, () -> new PersistentMap<String, Integer>().asOf(Instant.now()));
+    }
+
+    @Test
+    public void historyStatsTest() {
+        var d3 = new PersistentMap<String, Integer>().add("a", 1).add("b", 2).remove("a");
+        var stats = d3.historyStats();
+
+        assertEquals(1, stats.liveElements());
+        assertEquals(3, stats.historyEntries());
+        assertArrayEquals(new long[]{1, 1}, stats.depthHistogram());
+        assertTrue(stats.retainedBytes() > 0);
+    }
+
+    @Test
+    public void clearHistoryTest() {
+        var d2 = new PersistentMap<String, Integer>().add("a", 1).add("b", 2);
+        var entries = d2.historyStats().historyEntries();
+        var d3 = d2.clear();
+        assertEquals(entries, d3.historyStats().historyEntries());
+        var d4 = d3.add("a", 5);
+
+        assertEquals(0, d3.count);
+        assertNull(d3.get("a"));
+        assertFalse(d3.iterator().hasNext());
+        assertEquals(5, d4.get("a"));
+        assertNull(d4.get("b"));
+        assertEquals(2, d3.undo().get("b"));
+        assertEquals(d2, d3.undo());
+        assertEquals(Map.of("a", 5).hashCode(), d4.hashCode());
+        assertEquals(Set.of("a", "b"), d2.diff(2, 3).map(Change::key).collect(Collectors.toSet()));
+        assertEquals(List.of(new Revision<>(1, 1), new Revision<Integer>(3, null), new Revision<>(4, 5)),
+                d4.history("a").toList());
+
+        var branch = d2.replace("b", 20);
+        assertEquals(20, branch.get("b"));
+        assertEquals(1, branch.get("a"));
+        assertNull(d4.get("b"));
+    }
+
+    @Test
+    public void removedKeyTest() {
+        var d2 = new PersistentMap<String, Integer>().add("a", 1).add("b", 2);
+        var d3 = d2.remove("a");
+        var d4 = d3.add("a", 3);
+
+        assertEquals(Set.of("b"), d3.keySet());
+        assertEquals(Set.of(2), d3.valueSet());
+        assertEquals(List.of(Map.entry("b", 2)), iterate(d3));
+        assertEquals(3, d4.get("a"));
+        assertEquals(2, d4.count);
+        assertSame(d3, d3.remove("a"));
+        assertThrows(IllegalArgumentException.class, () -> d3.replace("a", 5));
+        assertEquals(1, d3.undo().undo().count);
+    }
+
+    @Test
+    public void presenceTest() {
+        var map = new PersistentMap<Integer, Integer>();
+        for (var i = 0; i < 5000; i++) {
+            map = map.add(i, i);
+        }
+
+        var full = map.trackPresence();
+        var even = full;
+        for (var i = 1; i < 5000; i += 2) {
+            even = even.remove(i);
+        }
+
+        assertEquals(2500, even.keySet().size());
+        assertTrue(even.keySet().contains(4998));
+        assertFalse(even.keySet().contains(4999));
+        assertEquals(5000, full.keySet().size());
+
+        var cleared = even.clear();
+        assertEquals(Set.of(), cleared.keySet());
+        assertEquals(Set.of(7), cleared.add(7, 7).keySet());
+
+        var branch = full.remove(0);
+        assertEquals(4999, branch.keySet().size());
+        assertEquals(2500, even.valueSet().size());
+    }
+
+    private static <K, V> List<Map.Entry<K, V>> iterate(PersistentMap<K, V> map) {
+        var result = new ArrayList<Map.Entry<K, V>>();
+        map.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    public void compactHistoryTest() {
+        var map = new PersistentMap<String, String>().add("k", "v0");
+        for (var i = 1; i < 300; i++) {
+            map = i % 3 == 0 ? map.remove("k") : map.get("k") == null ? map.add("k", "v" + i) : map.replace("k", "v" + i);
+        }
+
+        var history = map.history("k").toList();
+        assertEquals(256, map.compactHistory(HistoryCodec.plain()));
+        assertEquals(history, map.history("k").toList());
+        assertEquals("v1", map.history("k", 2, 2).findFirst().orElseThrow().value());
+
+        var old = map;
+        for (var i = 0; i < 200; i++) {
+            old = old.undo();
+        }
+        assertEquals(old.count, old.get("k") == null ? 0 : 1);
+        assertEquals(history.get(old.history("k").toList().size() - 1).value(), old.get("k"));
+        var branch = old.add("x", "y");
+        assertEquals(old.count + 1, branch.count);
+        assertEquals(old.get("k"), branch.get("k"));
+    }
+
+    @Test
+    public void checkpointTest() {
+        var map = new PersistentMap<Integer, String>().add(0, "a").checkpointEvery(4);
+        assertSame(map, map.checkpointEvery(4));
+        var configured = map;
+        assertThrows(IllegalStateException.class, () -> configured.checkpointEvery(8));
+        assertThrows(IllegalArgumentException.class, () -> new PersistentMap<Integer, String>().checkpointEvery(0));
+        var expected = new ArrayList<Map<Integer, String>>();
+        var current = new HashMap<>(Map.of(0, "a"));
+        expected.add(Map.copyOf(current));
+        for (var i = 1; i <= 60; i++) {
+            var key = i % 9;
+            if (i == 30) {
+                map = map.clear();
+                current.clear();
+            } else if (!current.containsKey(key)) {
+                map = map.add(key, "v" + i);
+                current.put(key, "v" + i);
+            } else if (i % 2 == 0) {
+                map = map.remove(key);
+                current.remove(key);
+            } else {
+                map = map.replace(key, "v" + i);
+                current.put(key, "v" + i);
+            }
+            expected.add(Map.copyOf(current));
+        }
+
+        var old = map;
+        for (var version = expected.size() - 1; version >= 0; version--, old = old.undo()) {
+            var entries = expected.get(version);
+            assertEquals(entries.size(), old.count);
+            assertEquals(entries.keySet(), old.keySet());
+            assertEquals(Set.copyOf(entries.values()), old.valueSet());
+            assertEquals(entries, iterate(old).stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+        }
+
+        var branch = map.undo().undo().add(100, "x");
+        var entries = new HashMap<>(expected.get(expected.size() - 3));
+        entries.put(100, "x");
+        assertEquals(entries.keySet(), branch.keySet());
+        assertEquals(expected.get(expected.size() - 3).keySet(), branch.undo().keySet());
+    }
+
+    @Test
+    public void snapshotCacheTest() {
+        var cache = new SnapshotCache(8, 3);
+        var map = new PersistentMap<String, Integer>().add("a", 1).add("b", 2);
+        map.cacheSnapshots(cache);
+        var latest = map.replace("a", 3).add("c", 4).remove("b");
+        var old = latest.undo().undo();
+
+        assertEquals(Map.of("a", 3, "b", 2), iterate(old).stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+        assertEquals(1, cache.size());
+        assertEquals(3, old.get("a"));
+        assertNull(old.get("c"));
+        assertEquals(2, cache.hits());
+
+        assertEquals(Map.of("a", 3, "c", 4), iterate(latest).stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.weight());
+        assertThrows(UnsupportedOperationException.class, () -> latest.iterator().next().setValue(0));
+
+        iterate(latest.undo());
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.weight());
+        iterate(latest.undo().add("d", 5));
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.weight());
+        assertEquals(4, latest.undo().get("c"));
+    }
+
+    @Test
+    public void spillHistoryTest(@TempDir Path directory) {
+        var versions = new ArrayList<PersistentMap<Integer, String>>();
+        var map = new PersistentMap<Integer, String>();
+        for (var i = 0; i < 600; i++) {
+            map = i % 50 == 49 ? map.remove(i % 3) : map.get(i % 3) == null ? map.add(i % 3, "v" + i) : map.replace(i % 3, "v" + i);
+            versions.add(map);
+        }
+
+        var history = map.history(1).toList();
+        try (var segment = HistorySegment.open(directory.resolve("history.segment"))) {
+            var stats = map.historyStats();
+            assertThrows(IllegalArgumentException.class, () -> versions.get(0).spillHistory(500, HistoryCodec.plain(), segment));
+            assertEquals(stats.retainedBytes(), map.historyStats().retainedBytes());
+            assertEquals(0, segment.size());
+            assertTrue(map.spillHistory(500, HistoryCodec.serializable(), segment) > 400);
+            assertTrue(segment.size() > 0);
+            assertEquals(history, map.history(1).toList());
+
+            for (var i = 0; i < versions.size(); i++) {
+                var expected = i % 50 == 49 ? null : "v" + i;
+                assertEquals(expected, versions.get(i).get(i % 3));
+            }
+
+            var branch = versions.get(120).add(7, "x");
+            assertEquals("v120", branch.get(0));
+            assertEquals("v119", branch.get(2));
+            assertEquals("x", branch.get(7));
+            assertEquals("v598", map.get(1));
+        }
+    }
+
+    @Test
+    public void changesTest() throws InterruptedException {
+        var executor = Executors.newSingleThreadExecutor();
+        var batches = new LinkedBlockingQueue<List<VersionChange<String, Integer>>>();
+        var subscriptions = new LinkedBlockingQueue<Flow.Subscription>();
+        var map = new PersistentMap<String, Integer>().add("a", 1);
+        for (var i = 0; i < 100; i++) {
+            map.changes(executor, 3);
+        }
+        var publisher = map.changes(executor, 3);
+        Flow.Subscriber<List<VersionChange<String, Integer>>> subscriber = new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriptions.add(subscription);
+            }
+
+            @Override
+            public void onNext(List<VersionChange<String, Integer>> item) {
+                batches.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        var subscription = subscriptions.take();
+        map = map.add("b", 2).replace("a", 3).remove("b").add("c", 4);
+        assertNull(batches.poll(50, TimeUnit.MILLISECONDS));
+
+        subscription.request(1);
+        var first = batches.poll(5, TimeUnit.SECONDS);
+        assertEquals(List.of(2, 3, 4), first.stream().map(VersionChange::version).toList());
+        assertEquals(List.of(new Change<>(ChangeType.Added, "b", null, 2)), first.get(0).changes());
+        assertEquals(List.of(new Change<>(ChangeType.Replaced, "a", 1, 3)), first.get(1).changes());
+        assertEquals(List.of(new Change<>(ChangeType.Removed, "b", 2, null)), first.get(2).changes());
+        assertNull(batches.poll(50, TimeUnit.MILLISECONDS));
+
+        subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of(new VersionChange<>(5, List.of(new Change<>(ChangeType.Added, "c", null, 4)))),
+                batches.poll(5, TimeUnit.SECONDS));
+
+        map = map.clear();
+        assertEquals(List.of(new Change<>(ChangeType.Removed, "a", 3, null), new Change<>(ChangeType.Removed, "c", 4, null)),
+                batches.poll(5, TimeUnit.SECONDS).get(0).changes().stream().sorted(Comparator.comparing(Change::key)).toList());
+
+        subscription.cancel();
+        subscription.cancel();
+        map = map.add("d", 5);
+        assertNull(batches.poll(50, TimeUnit.MILLISECONDS));
+
+        publisher.subscribe(subscriber);
+        var resumed = subscriptions.take();
+        resumed.request(Long.MAX_VALUE);
+        map.add("e", 6);
+        assertEquals(List.of(new VersionChange<>(8, List.of(new Change<>(ChangeType.Added, "e", null, 6)))),
+                batches.poll(5, TimeUnit.SECONDS));
+        resumed.cancel();
+        executor.shutdown();
+    }
+
+    @Test
+    public void changesErrorTest() throws InterruptedException {
+        var uncaught = new LinkedBlockingQueue<Throwable>();
+        var executor = Executors.newSingleThreadExecutor(task -> {
+            var thread = new Thread(task, "publisher");
+            thread.setUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+            return thread;
+        });
+        var signals = new LinkedBlockingQueue<String>();
+        var subscriptions = new LinkedBlockingQueue<Flow.Subscription>();
+        var map = new PersistentMap<String, Integer>();
+        Flow.Subscriber<List<VersionChange<String, Integer>>> subscriber = new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriptions.add(subscription);
+            }
+
+            @Override
+            public void onNext(List<VersionChange<String, Integer>> item) {
+                signals.add(Thread.currentThread().getName() + " next " + item.get(0).version());
+                if (item.get(0).version() == 2) {
+                    throw new IllegalStateException("boom");
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add(Thread.currentThread().getName() + " error " + throwable.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+
+        map.changes(executor, 1).subscribe(subscriber);
+        var invalid = subscriptions.take();
+        invalid.request(0);
+        assertEquals("publisher error IllegalArgumentException", signals.poll(5, TimeUnit.SECONDS));
+        map = map.add("a", 1);
+        assertNull(signals.poll(50, TimeUnit.MILLISECONDS));
+
+        map.changes(executor, 1).subscribe(subscriber);
+        var failing = subscriptions.take();
+        failing.request(Long.MAX_VALUE);
+        map.add("b", 2).add("c", 3);
+        assertEquals("publisher next 2", signals.poll(5, TimeUnit.SECONDS));
+        assertEquals("boom", uncaught.poll(5, TimeUnit.SECONDS).getMessage());
+        assertNull(signals.poll(50, TimeUnit.MILLISECONDS));
+        executor.shutdown();
+    }
+
+    private record Order(String status, int amount) {
+    }
+
+    @Test
+    public void secondaryIndexTest() {
+        var m0 = new PersistentMap<String, Order>().add("a", new Order("open", 1)).add("b", new Order("paid", 2));
+        var m1 = m0.withIndex("byStatus", Order::status);
+        assertSame(m0, m1);
+
+        var m2 = m1.add("c", new Order("open", 3));
+        var m3 = m2.replace("a", new Order("paid", 4));
+        var m4 = m3.remove("b");
+        var m5 = m4.replace("c", new Order("open", 5));
+
+        assertEquals(Set.of("a"), m1.keysWhere("byStatus", "open"));
+        assertEquals(Set.of("a", "c"), m2.keysWhere("byStatus", "open"));
+        assertEquals(Set.of("c"), m3.keysWhere("byStatus", "open"));
+        assertEquals(Set.of("a", "b"), m3.keysWhere("byStatus", "paid"));
+        assertEquals(Set.of("a"), m4.keysWhere("byStatus", "paid"));
+        assertEquals(1, m5.countWhere("byStatus", "open"));
+        assertEquals(Set.of(), m5.keysWhere("byStatus", "shipped"));
+
+        var branch = m2.remove("a");
+        assertEquals(Set.of("c"), branch.keysWhere("byStatus", "open"));
+        assertEquals(Set.of("a", "c"), m2.keysWhere("byStatus", "open"));
+        assertEquals(Set.of("a"), m4.keysWhere("byStatus", "paid"));
+
+        var cleared = m5.clear();
+        assertEquals(0, cleared.countWhere("byStatus", "open"));
+        assertEquals(Set.of("d"), cleared.add("d", new Order("open", 6)).keysWhere("byStatus", "open"));
+        assertEquals(Set.of("a"), m0.undo().keysWhere("byStatus", "open"));
+
+        assertThrows(IllegalStateException.class, () -> m5.keysWhere("byAmount", 5));
+    }
+
+    @Test
+    public void staleIndexTest() {
+        var m0 = new PersistentMap<String, Order>().add("a", new Order("open", 1));
+        var m1 = m0.add("b", new Order("paid", 2)).add("c", new Order("open", 3));
+        var calls = new AtomicInteger();
+        assertSame(m0, m0.withIndex("byStatus", order -> {
+            calls.incrementAndGet();
+            return order.status();
+        }));
+
+        var m2 = m1.replace("a", new Order("paid", 4));
+        var before = calls.get();
+        assertEquals(Set.of("c"), m2.keysWhere("byStatus", "open"));
+        assertEquals(2, m2.countWhere("byStatus", "paid"));
+        assertEquals(Set.of("a", "c"), m1.keysWhere("byStatus", "open"));
+        assertEquals(before, calls.get());
+        assertEquals(Set.of("a"), m0.keysWhere("byStatus", "open"));
+    }
 }
@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.Test;
+import persistence.structure.queue.PersistentPriorityQueue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentPriorityQueueTest {
+    @Test
+    public void insertPollTest() {
+        var q0 = new PersistentPriorityQueue<Integer>();
+        var q1 = q0.insert(5).insert(1).insert(3);
+        var q2 = q1.poll();
+
+        assertEquals(1, q1.peek());
+        assertEquals(3, q2.peek());
+        assertIterableEquals(List.of(1, 3, 5), q1);
+        assertIterableEquals(List.of(3, 5), q2);
+        assertEquals(3, q1.size());
+        assertNull(q0.peek());
+        assertSame(q0, q0.poll());
+        assertFalse(q0.iterator().hasNext());
+
+        var reversed = new PersistentPriorityQueue<Integer>(Comparator.reverseOrder()).insert(1).insert(7);
+        assertEquals(7, reversed.peek());
+    }
+
+    @Test
+    public void insertOrderTest() {
+        var ascending = new PersistentPriorityQueue<Integer>();
+        var descending = new PersistentPriorityQueue<Integer>();
+        var zigzag = new PersistentPriorityQueue<Integer>();
+        for (var i = 0; i < 100; i++) {
+            ascending = ascending.insert(i);
+            descending = descending.insert(99 - i);
+            zigzag = zigzag.insert(i % 2 == 0 ? i : 100 - i);
+            assertEquals(0, ascending.peek());
+            assertEquals(99 - i, descending.peek());
+        }
+
+        var sorted = IntStream.range(0, 100).boxed().toList();
+        assertIterableEquals(sorted, ascending);
+        assertIterableEquals(sorted, descending);
+        assertEquals(100, zigzag.size());
+
+        var drained = new ArrayList<Integer>();
+        for (var q = zigzag; !q.isEmpty(); q = q.poll()) {
+            drained.add(q.peek());
+        }
+        assertEquals(zigzag.size(), drained.size());
+        assertIterableEquals(drained.stream().sorted().toList(), drained);
+    }
+
+    @Test
+    public void duplicatesTest() {
+        var q = new PersistentPriorityQueue<Integer>();
+        for (var i = 0; i < 10; i++) {
+            q = q.insert(4).insert(2);
+        }
+
+        assertIterableEquals(List.of(2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 4, 4, 4, 4, 4, 4, 4, 4, 4, 4), q);
+        for (var i = 0; i < 10; i++) {
+            q = q.poll();
+        }
+        assertEquals(4, q.peek());
+        assertEquals(10, q.size());
+    }
+
+    @Test
+    public void oldVersionPollTest() {
+        var q = new PersistentPriorityQueue<Integer>();
+        for (var i = 0; i < 1000; i++) {
+            q = q.insert(i);
+        }
+        var middle = q;
+        for (var i = 0; i < 500; i++) {
+            q = q.poll();
+        }
+
+        for (var i = 0; i < 50; i++) {
+            var polled = middle.poll();
+            assertEquals(1, polled.peek());
+            assertEquals(999, polled.size());
+        }
+        assertEquals(0, middle.peek());
+        assertEquals(500, q.peek());
+        assertEquals(499, q.undo().peek());
+        assertEquals(500, q.undo().poll().peek());
+        assertEquals(499, q.undo().insert(-1).poll().peek());
+    }
+
+    @Test
+    public void rankTest() {
+        var q = new PersistentPriorityQueue<Integer>().insert(30).insert(10).insert(20).insert(40);
+
+        assertEquals(10, q.get(0));
+        assertEquals(40, q.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> q.get(4));
+        assertThrows(IndexOutOfBoundsException.class, () -> q.replace(-1, 0));
+
+        assertIterableEquals(List.of(20, 30, 40, 50), q.replace(0, 50));
+        assertIterableEquals(List.of(5, 10, 20, 30), q.replace(3, 5));
+        assertIterableEquals(List.of(10, 25, 30, 40), q.replace(1, 25));
+        assertIterableEquals(List.of(10, 20, 30, 40), q);
+    }
+
+    @Test
+    public void mergeTest() {
+        var a = new PersistentPriorityQueue<Integer>().insert(4).insert(2);
+        var b = new PersistentPriorityQueue<Integer>().insert(3).insert(1).insert(5);
+        var empty = new PersistentPriorityQueue<Integer>();
+
+        assertIterableEquals(List.of(1, 2, 3, 4, 5), a.merge(b));
+        assertIterableEquals(List.of(2, 2, 4, 4), a.merge(a));
+        assertSame(a, a.merge(empty));
+        assertIterableEquals(List.of(2, 4), empty.merge(a));
+        assertIterableEquals(List.of(2, 4), a.merge(b).undo());
+        assertThrows(IllegalArgumentException.class,
+                () -> a.merge(new PersistentPriorityQueue<Integer>(Comparator.reverseOrder()).insert(1)));
+    }
+}
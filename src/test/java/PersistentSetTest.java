@@ -0,0 +1,102 @@
+import org.junit.jupiter.api.Test;
+import persistence.structure.set.PersistentSet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentSetTest {
+    private static <T> Set<T> items(PersistentSet<T> set) {
+        var result = new HashSet<T>();
+        set.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    public void addRemoveTest() {
+        var s0 = new PersistentSet<Integer>();
+        var s1 = s0.add(1);
+        var s2 = s1.add(2);
+        var s3 = s2.remove(1);
+        var s4 = s1.add(3);
+
+        assertSame(s1, s1.add(1));
+        assertSame(s1, s1.remove(5));
+
+        assertFalse(s0.contains(1));
+        assertTrue(s1.contains(1));
+        assertTrue(s2.contains(2));
+        assertFalse(s3.contains(1));
+        assertTrue(s3.contains(2));
+        assertTrue(s4.contains(3));
+        assertFalse(s4.contains(2));
+
+        assertEquals(Set.of(2), items(s3));
+        assertEquals(Set.of(1, 3), items(s4));
+        assertEquals(2, s4.size());
+
+        var s5 = s3.add(1);
+        assertEquals(Set.of(1, 2), items(s5));
+        assertEquals(0, s5.clear().size());
+    }
+
+    @Test
+    public void undoRedoTest() {
+        var s0 = new PersistentSet<String>();
+        var s1 = s0.add("a");
+        var s2 = s1.add("b");
+        var s3 = s2.remove("a");
+
+        assertEquals(s0, s0.undo());
+        assertEquals(s3, s3.redo());
+
+        var undone = s3.undo();
+        assertEquals(Set.of("a", "b"), items(undone));
+        assertEquals(2, undone.size());
+
+        var redone = s1.redo();
+        assertEquals(Set.of("a", "b"), items(redone));
+        assertEquals(2, redone.size());
+    }
+
+    @Test
+    public void setAlgebraTest() {
+        var a = new PersistentSet<Integer>().add(1).add(2).add(3);
+        var b = new PersistentSet<Integer>().add(2).add(3).add(4);
+
+        assertEquals(Set.of(1, 2, 3, 4), items(a.union(b)));
+        assertEquals(Set.of(2, 3), items(a.intersection(b)));
+        assertEquals(Set.of(1), items(a.difference(b)));
+        assertEquals(Set.of(4), items(b.difference(a)));
+
+        assertEquals(4, a.union(b).size());
+        assertEquals(Set.of(1, 2, 3), items(a));
+    }
+
+    @Test
+    public void sharedVersionAlgebraTest() {
+        var base = new PersistentSet<Integer>().add(1).add(2);
+        var later = base.add(3).remove(1);
+
+        assertEquals(Set.of(1, 2, 3), items(base.union(later)));
+        assertEquals(Set.of(2), items(base.intersection(later)));
+        assertEquals(Set.of(1), items(base.difference(later)));
+        assertEquals(Set.of(3), items(later.difference(base)));
+
+        assertSame(later, later.union(later));
+        assertEquals(0, later.difference(later).size());
+    }
+
+    @Test
+    public void equalsHashCodeTest() {
+        var a = new PersistentSet<Integer>().add(1).add(2).add(3).remove(2);
+        var b = new PersistentSet<Integer>().add(3).add(1);
+
+        assertEquals(Set.of(1, 3).hashCode(), a.hashCode());
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, b.add(4));
+        assertEquals(a.undo(), b.add(2));
+    }
+}
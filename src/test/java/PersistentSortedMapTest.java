@@ -0,0 +1,179 @@
+import org.junit.jupiter.api.Test;
+import persistence.base.aggregate.Monoid;
+import persistence.structure.map.PersistentSortedMap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentSortedMapTest {
+    private static List<Integer> keys(Iterable<Map.Entry<Integer, String>> map) {
+        var result = new ArrayList<Integer>();
+        map.forEach(e -> result.add(e.getKey()));
+        return result;
+    }
+
+    @Test
+    public void orderedIterationTest() {
+        var d0 = new PersistentSortedMap<Integer, String>();
+        var d1 = d0.add(30, "c").add(10, "a").add(20, "b");
+        var d2 = d1.add(-5, "z").remove(20);
+
+        assertEquals(List.of(10, 20, 30), keys(d1));
+        assertEquals(List.of(-5, 10, 30), keys(d2));
+        assertEquals(List.of(), keys(d0));
+        assertEquals(3, d2.count);
+
+        var d3 = d2.add(20, "bb");
+        assertEquals("bb", d3.get(20));
+        assertEquals("b", d1.get(20));
+    }
+
+    @Test
+    public void comparatorTest() {
+        var d0 = new PersistentSortedMap<String, Integer>(Comparator.reverseOrder());
+        var d1 = d0.add("a", 1).add("c", 3).add("b", 2);
+
+        assertEquals("c", d1.firstKey());
+        assertEquals("a", d1.lastKey());
+        assertEquals(List.of("c", "b", "a"), List.copyOf(d1.keySet()));
+    }
+
+    @Test
+    public void navigationTest() {
+        var d0 = new PersistentSortedMap<Integer, String>();
+        var d1 = d0.add(10, "a").add(20, "b").add(30, "c");
+        var d2 = d1.remove(20);
+
+        assertEquals(10, d1.firstKey());
+        assertEquals(30, d1.lastKey());
+        assertThrows(NoSuchElementException.class, d0::firstKey);
+
+        assertEquals(20, d1.floorKey(25));
+        assertEquals(10, d2.floorKey(25));
+        assertEquals(30, d2.ceilingKey(15));
+        assertEquals(20, d1.ceilingKey(15));
+        assertNull(d1.floorKey(5));
+        assertNull(d1.ceilingKey(35));
+
+        assertEquals(Map.entry(10, "a"), d1.lowerEntry(20));
+        assertEquals(Map.entry(30, "c"), d1.higherEntry(20));
+        assertEquals(Map.entry(30, "c"), d2.higherEntry(10));
+    }
+
+    @Test
+    public void rangeViewTest() {
+        var map = new PersistentSortedMap<Integer, String>();
+        for (int i = 0; i < 10; i++) {
+            map = map.add(i * 10, Integer.toString(i));
+        }
+
+        var full = map;
+        var sub = map.subMap(20, 50);
+        assertEquals(List.of(20, 30, 40), keys(sub));
+        assertEquals(3, sub.count);
+        assertNull(sub.get(50));
+        assertEquals(20, sub.firstKey());
+        assertEquals(40, sub.lastKey());
+        assertEquals(40, sub.floorKey(100));
+        assertEquals(20, sub.ceilingKey(0));
+
+        assertEquals(List.of(0, 10, 20), keys(map.headMap(20, true)));
+        assertEquals(List.of(80, 90), keys(map.tailMap(80)));
+        assertEquals(List.of(30, 40), keys(sub.tailMap(20, false)));
+
+        assertThrows(IllegalArgumentException.class, () -> full.subMap(50, 20));
+        assertThrows(IllegalArgumentException.class, () -> sub.headMap(60));
+        assertThrows(IllegalArgumentException.class, () -> sub.add(60, "x"));
+
+        var changed = sub.add(25, "x").remove(30);
+        assertEquals(List.of(20, 25, 40), keys(changed));
+        assertEquals(List.of(20, 30, 40), keys(changed.undo().undo()));
+
+        var cleared = sub.clear();
+        assertEquals(List.of(), keys(cleared));
+        assertEquals(0, cleared.count);
+        assertEquals(List.of(20, 30, 40), keys(sub));
+    }
+
+    @Test
+    public void branchingTest() {
+        var d0 = new PersistentSortedMap<Integer, String>();
+        var d1 = d0.add(2, "b");
+        var d2 = d1.add(3, "c");
+        var d3 = d1.add(1, "a");
+
+        assertEquals(List.of(2, 3), keys(d2));
+        assertEquals(List.of(1, 2), keys(d3));
+        assertEquals(1, d3.firstKey());
+        assertEquals(2, d2.firstKey());
+    }
+
+    @Test
+    public void equalsHashCodeTest() {
+        var d1 = new PersistentSortedMap<Integer, String>().add(1, "a").add(2, "b").add(3, "c");
+        var d2 = new PersistentSortedMap<Integer, String>().add(2, "b").add(3, "c");
+
+        assertEquals(d2, d1.tailMap(2));
+        assertEquals(d2.hashCode(), d1.tailMap(2).hashCode());
+        assertEquals(Map.of(2, "b", 3, "c").hashCode(), d1.tailMap(2).hashCode());
+        assertNotEquals(d1.headMap(3), d1.tailMap(2));
+        assertEquals(d1, d1.subMap(0, 10));
+    }
+
+    @Test
+    public void aggregateTest() {
+        var concat = Monoid.<String, String>of("", x -> x, String::concat);
+        var m0 = new PersistentSortedMap<Integer, String>().add(3, "c").add(1, "a");
+        var m1 = m0.withAggregate("concat", concat).add(2, "b").add(5, "e");
+        var m2 = m1.remove(3).replace(1, "A").add(4, "d");
+
+        assertEquals("abce", m1.aggregate("concat"));
+        assertEquals("Abde", m2.aggregate("concat"));
+        assertEquals("bd", m2.aggregate("concat", 2, 5));
+        assertEquals("", m2.aggregate("concat", 3, 3));
+        assertEquals("ac", m0.aggregate("concat"));
+        assertEquals("abce", m2.undo().undo().undo().aggregate("concat"));
+        assertEquals("abc", m1.undo().aggregate("concat"));
+
+        var branch = m1.undo().add(0, "z");
+        assertEquals("zabc", branch.aggregate("concat"));
+        assertEquals("Abde", m2.aggregate("concat"));
+
+        var sub = m2.subMap(2, 5);
+        assertEquals("bd", sub.aggregate("concat"));
+        assertEquals("b", sub.aggregate("concat", 2, 4));
+        assertThrows(IllegalArgumentException.class, () -> sub.aggregate("concat", 1, 4));
+        assertThrows(IllegalStateException.class, () -> new PersistentSortedMap<Integer, String>().aggregate("concat"));
+
+        var length = Monoid.<String, Integer>of(0, String::length, Integer::sum);
+        assertThrows(IllegalArgumentException.class, () -> m0.withAggregate("concat", length));
+        var lengths = m1.undo().withAggregate("length", length);
+        var m3 = m2.add(6, "ff");
+        assertEquals(6, (Integer) m3.aggregate("length"));
+        assertEquals(3, (Integer) lengths.aggregate("length"));
+        assertEquals("Abdeff", m3.aggregate("concat"));
+        assertThrows(IllegalStateException.class, () -> m3.aggregate("sum"));
+    }
+
+    @Test
+    public void secondaryIndexTest() {
+        var map = new PersistentSortedMap<Integer, String>();
+        for (var i = 0; i < 10; i++) {
+            map = map.add(i, i % 2 == 0 ? "even" : "odd");
+        }
+        map = map.withIndex("parity", value -> value);
+
+        var changed = map.replace(4, "odd").remove(7);
+        assertEquals(Set.of(0, 2, 6, 8), changed.keysWhere("parity", "even"));
+        assertEquals(List.of(1, 3, 4, 5, 9), List.copyOf(changed.keysWhere("parity", "odd")));
+        assertEquals(Set.of(3, 4, 5), changed.subMap(3, 7).keysWhere("parity", "odd"));
+        assertEquals(2, changed.headMap(4).countWhere("parity", "even"));
+        assertEquals(5, changed.undo().undo().countWhere("parity", "even"));
+    }
+}
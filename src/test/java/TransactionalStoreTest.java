@@ -0,0 +1,169 @@
+import org.junit.jupiter.api.Test;
+import persistence.structure.array.PersistentArray;
+import persistence.structure.map.PersistentMap;
+import persistence.transaction.TransactionalStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionalStoreTest {
+    @Test
+    public void commitTest() {
+        var store = new TransactionalStore();
+        var accounts = store.ref(new PersistentMap<String, Integer>().add("a", 10).add("b", 0));
+        var log = store.ref(new PersistentArray<String>());
+        var before = store.snapshot();
+
+        var after = store.transaction(tx -> {
+            var amount = tx.get(accounts).get("a");
+            tx.update(accounts, m -> m.replace("a", 0).replace("b", amount));
+            tx.update(log, l -> l.add("moved " + amount));
+        });
+
+        assertEquals(before.version() + 1, after.version());
+        assertEquals(10, after.get(accounts).get("b"));
+        assertEquals("moved 10", after.get(log).get(0));
+        assertEquals(10, before.get(accounts).get("a"));
+        assertEquals(0, before.get(log).count);
+        assertSame(after, store.snapshot());
+        assertSame(after, store.transaction(tx -> tx.get(accounts)));
+    }
+
+    @Test
+    public void conflictRetryTest() {
+        var store = new TransactionalStore();
+        var counter = store.ref(new PersistentArray<Integer>().add(0));
+        var attempts = new AtomicInteger();
+
+        store.transaction(tx -> {
+            var value = tx.get(counter).get(0);
+            if (attempts.incrementAndGet() == 1) {
+                store.transaction(inner -> inner.update(counter, a -> a.replace(0, a.get(0) + 100)));
+            }
+            tx.update(counter, a -> a.replace(0, value + 1));
+        });
+
+        assertEquals(2, attempts.get());
+        assertEquals(101, store.snapshot().get(counter).get(0));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.transaction(tx -> tx.get(new TransactionalStore().ref(1))));
+    }
+
+    @Test
+    public void uncommittedWorkTest() {
+        var store = new TransactionalStore();
+        var counter = store.ref(new PersistentArray<Integer>().add(0));
+        var committed = store.snapshot().get(counter);
+        var attempts = new AtomicInteger();
+
+        var seen = store.transaction(tx -> {
+            attempts.incrementAndGet();
+            assertEquals(0, tx.get(counter).get(0));
+            assertThrows(IllegalStateException.class, () -> store.transaction(inner -> {
+                inner.update(counter, a -> a.replace(0, 7));
+                assertEquals(7, inner.get(counter).get(0));
+                throw new IllegalStateException();
+            }));
+        });
+
+        assertEquals(1, attempts.get());
+        assertSame(store.snapshot(), seen);
+        assertSame(committed, store.snapshot().get(counter));
+        assertSame(committed, committed.redo());
+        assertEquals(1, committed.replace(0, 1).get(0));
+    }
+
+    @Test
+    public void stagedWritesTest() {
+        var store = new TransactionalStore();
+        var items = store.ref(new PersistentMap<String, Integer>().add("a", 1));
+        var before = store.snapshot().get(items);
+
+        var after = store.transaction(tx -> {
+            tx.update(items, m -> m.add("b", 2));
+            tx.update(items, m -> m.replace("a", 10));
+        }).get(items);
+
+        // staged writes are appended to the committed history instead of a private copy of it
+        assertTrue(after.sharesHistory(before));
+        assertEquals(10, after.get("a"));
+        assertEquals(2, after.get("b"));
+        assertEquals(1, before.get("a"));
+        assertNull(before.get("b"));
+
+        var previewed = store.transaction(tx -> {
+            tx.update(items, m -> m.add("c", 3));
+            assertEquals(3, tx.get(items).get("c"));
+            tx.update(items, m -> m.remove("a"));
+            assertNull(tx.get(items).get("a"));
+            assertEquals(2, tx.get(items).count);
+        }).get(items);
+
+        assertTrue(previewed.sharesHistory(before));
+        assertEquals(List.of(2, 3), List.of(previewed.get("b"), previewed.get("c")));
+        assertNull(previewed.get("a"));
+        assertEquals(10, after.get("a"));
+    }
+
+    @Test
+    public void setTest() {
+        var store = new TransactionalStore();
+        var items = store.ref(new PersistentArray<Integer>().add(1));
+        var committed = store.snapshot().get(items);
+
+        assertThrows(IllegalArgumentException.class, () -> store.transaction(tx -> tx.set(items, tx.get(items).add(2))));
+        assertEquals(1, committed.count);
+
+        var replaced = store.transaction(tx -> {
+            tx.set(items, new PersistentArray<Integer>().add(5));
+            tx.update(items, a -> a.add(6));
+        });
+        assertEquals(List.of(5, 6), List.of(replaced.get(items).get(0), replaced.get(items).get(1)));
+        assertEquals(1, committed.get(0));
+    }
+
+    @Test
+    public void concurrentTransfersTest() throws Exception {
+        var store = new TransactionalStore();
+        var left = store.ref(new PersistentMap<Integer, Integer>().add(0, 1000));
+        var right = store.ref(new PersistentMap<Integer, Integer>().add(0, 0));
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var tasks = new ArrayList<Callable<Boolean>>();
+            for (var t = 0; t < 2; t++) {
+                tasks.add(() -> {
+                    for (var i = 0; i < 250; i++) {
+                        store.transaction(tx -> {
+                            var from = tx.get(left).get(0);
+                            var to = tx.get(right).get(0);
+                            tx.update(left, m -> m.replace(0, from - 1));
+                            tx.update(right, m -> m.replace(0, to + 1));
+                        });
+                    }
+                    return true;
+                });
+                tasks.add(() -> {
+                    var consistent = true;
+                    for (var i = 0; i < 250; i++) {
+                        consistent &= store.read(s -> s.get(left).get(0) + s.get(right).get(0)) == 1000;
+                    }
+                    return consistent;
+                });
+            }
+
+            for (var future : executor.invokeAll(tasks)) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(500, store.snapshot().get(left).get(0));
+        assertEquals(500, store.snapshot().get(right).get(0));
+    }
+}